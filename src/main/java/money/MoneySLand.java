@@ -3,6 +3,7 @@ package money;
 import cn.nukkit.Player;
 import cn.nukkit.Server;
 import cn.nukkit.block.Block;
+import cn.nukkit.level.Level;
 import cn.nukkit.level.Position;
 import cn.nukkit.level.generator.Generator;
 import cn.nukkit.plugin.PluginBase;
@@ -16,13 +17,32 @@ import money.event.MoneySLandBuyEvent;
 import money.event.MoneySLandOwnerChangeEvent;
 import money.event.MoneySLandPriceCalculateEvent;
 import money.generator.SLandGenerator;
+import money.generator.SLandTemplate;
 import money.sland.SLand;
+import money.sland.SLandCounter;
+import money.sland.SLandGovernor;
+import money.sland.SLandGrid;
+import money.sland.SLandHomeAllocator;
 import money.sland.SLandPool;
+import money.sland.SLandPristineTracker;
+import money.sland.SLandProfiler;
+import money.sland.SLandProtectionCache;
+import money.sland.SLandQuery;
+import money.sland.SLandTeleporter;
+import money.sland.SLandTracker;
+import money.tasks.AisleSweepTask;
+import money.tasks.IdleChunkUnloadTask;
+import money.utils.MessageTemplate;
 import money.utils.SLandUtils;
 
 import java.io.*;
 import java.lang.reflect.Constructor;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 /**
  * @author Him188 @ MoneySLand Project
@@ -41,23 +61,51 @@ public final class MoneySLand extends PluginBase implements MoneySLandAPI {
 
     private SLandPool lands;
     private SLandPool modifiedLands;
+    private SLandProtectionCache protectionCache;
+    private SLandTracker tracker;
+    private final SLandCounter counter = new SLandCounter();
+    private SLandProfiler profiler;
+    private SLandPristineTracker pristineTracker;
+    private SLandHomeAllocator homeAllocator;
+    private SLandTeleporter teleporter;
+    private SLandGovernor governor;
+    private final Map<String, SLandGrid> grids = new ConcurrentHashMap<>();
+    //主人名字 (小写) -> 地皮, 有序以支持按前缀查询
+    private final ConcurrentNavigableMap<String, Set<SLand>> ownedLands = new ConcurrentSkipListMap<>();
+    private final Set<String> plainLevels = ConcurrentHashMap.newKeySet();
     private Config landConfig;
+    private Config levelNumbers;
 
 
     private int id;
 
     private LinkedHashMap<String, Object> language;
+    private Map<String, MessageTemplate> messages;
     private MoneySLandEventListener eventListener;
 
     private TaskHandler savingTask;
-
-    private static final Map<String, Class<? extends SLandCommand>> COMMAND_CLASSES = new HashMap<>();
+    private TaskHandler cacheRefreshTask;
+    private TaskHandler profilerTask;
+    private TaskHandler aisleSweepTask;
+    private TaskHandler idleChunkUnloadTask;
+    private TaskHandler homeRefillTask;
+    private TaskHandler teleportTask;
+
+    private static final Map<String, Class<? extends SLandCommand>> COMMAND_CLASSES = new HashMap<String, Class<? extends SLandCommand>>() {
+        {
+            put("landdeny", LandDenyCommand.class);
+            put("slandlag", SLandLagCommand.class);
+            put("landsearch", LandSearchCommand.class);
+            put("pregenland", PregenLandCommand.class);
+        }
+    };
 
     @Override
     public void onLoad() {
         //当地形生成器已注册时, 方法返回 false
         //服务器重启不会清空地形生成器
         reloadGeneratorDefaultSettings();
+        SLandTemplate.setMaxChunkVariants(getConfig().getInt("chunk-variant-cache", 2048));
         for (String name : SLandGenerator.GENERATOR_NAMES) {
             Generator.addGenerator(SLandGenerator.class, name, Generator.TYPE_INFINITE);
         }
@@ -71,6 +119,8 @@ public final class MoneySLand extends PluginBase implements MoneySLandAPI {
 
         lands = new SLandPool();
         modifiedLands = new SLandPool();
+        protectionCache = new SLandProtectionCache();
+        tracker = new SLandTracker(this);
 
         initConfigSettings();
 
@@ -83,6 +133,7 @@ public final class MoneySLand extends PluginBase implements MoneySLandAPI {
         }
 
         landConfig = new Config(getDataFolder() + File.separator + "lands.dat", Config.YAML);
+        levelNumbers = new Config(getDataFolder() + File.separator + "levels.yml", Config.YAML);
         landConfig.getSections().values().forEach((o) -> {
             try {
                 lands.add(SLand.newLand((ConfigSection) o));
@@ -93,6 +144,8 @@ public final class MoneySLand extends PluginBase implements MoneySLandAPI {
                 getLogger().debug("", e);
             }
         });
+        ownedLands.clear();
+        lands.values().forEach(this::indexOwner);
         getLogger().info(this.translateMessage("load.success",
                 "count", getLandPool().size()
         ));
@@ -118,6 +171,52 @@ public final class MoneySLand extends PluginBase implements MoneySLandAPI {
         }
 
         savingTask = Server.getInstance().getScheduler().scheduleDelayedRepeatingTask(this, this::save, 20 * 60, 20 * 60);
+
+        int refreshTicks = getConfig().getInt("protection-cache-refresh-ticks", 200);
+        if (refreshTicks > 0) { //权限插件修改权限时没有事件, 只能定时刷新
+            cacheRefreshTask = Server.getInstance().getScheduler().scheduleDelayedRepeatingTask(this, () -> {
+                this.getLogger().debug("Protection cache hit rate: " + Math.round(protectionCache.getHitRate() * 100) + "%");
+                protectionCache.invalidateAll();
+            }, refreshTicks, refreshTicks);
+        }
+
+        int sampleTicks = getConfig().getInt("profiler-sample-ticks", 20);
+        if (sampleTicks > 0) {
+            profiler = new SLandProfiler(this, getConfig().getInt("profiler-event-sample-rate", 8));
+            profilerTask = Server.getInstance().getScheduler().scheduleDelayedRepeatingTask(this, profiler::sample, sampleTicks, sampleTicks);
+        } else {
+            profiler = null;
+        }
+
+        governor = new SLandGovernor(this,
+                getConfig().getInt("governor-redstone-budget", 512),
+                getConfig().getInt("governor-hopper-budget", 64),
+                getConfig().getInt("governor-offence-ticks", 200));
+
+        int sweepPeriod = getConfig().getInt("aisle-sweep-period-ticks", 6000);
+        if (sweepPeriod > 0) {
+            aisleSweepTask = Server.getInstance().getScheduler().scheduleRepeatingTask(
+                    new AisleSweepTask(this, sweepPeriod, getConfig().getInt("aisle-sweep-chunks-per-tick", 4)), 1);
+        }
+
+        int unloadPeriod = getConfig().getInt("idle-chunk-unload-ticks", 200);
+        if (unloadPeriod > 0) {
+            idleChunkUnloadTask = Server.getInstance().getScheduler().scheduleDelayedRepeatingTask(new IdleChunkUnloadTask(this), unloadPeriod, unloadPeriod);
+        }
+
+        pristineTracker = getConfig().getBoolean("skip-pristine-chunks", true) ? new SLandPristineTracker(this) : null;
+
+        teleporter = new SLandTeleporter(getConfig().getInt("teleport-preload-ticks", 100), getConfig().getInt("warm-lands", 16));
+        teleportTask = Server.getInstance().getScheduler().scheduleRepeatingTask(this, teleporter::tick, 1);
+
+        String homeLevel = getConfig().getString("home-level", "");
+        if (!homeLevel.isEmpty()) {
+            homeAllocator = new SLandHomeAllocator(this, homeLevel, getConfig().getInt("home-reserve", 32),
+                    new Config(getDataFolder() + File.separator + "homes.yml", Config.YAML));
+            homeRefillTask = Server.getInstance().getScheduler().scheduleDelayedRepeatingTask(this, homeAllocator::refill, 20, 20);
+        } else {
+            homeAllocator = null;
+        }
     }
 
     private void reloadGeneratorDefaultSettings() {
@@ -188,16 +287,33 @@ public final class MoneySLand extends PluginBase implements MoneySLandAPI {
 
             properties.store(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"), "MoneySLand language config");
         }
+
+        Map<String, MessageTemplate> messages = new HashMap<>();
+        this.language.forEach((key, value) -> messages.put(key, MessageTemplate.compile(value.toString())));
+        this.messages = messages;
     }
 
-    private void save() {
+    /**
+     * 保存修改过的地皮 <br>
+     * Saves changed lands
+     */
+    public void save() {
+        if (homeAllocator != null) {
+            homeAllocator.save();
+        }
         if (modifiedLands.size() == 0) {
             this.getLogger().debug("No land changes detected.");
             return;
         }
         this.getLogger().debug("Saving " + modifiedLands.size() + " lands...");
         for (SLand land : modifiedLands.values()) {
-            landConfig.set(String.valueOf(land.getId()), land.save());
+            //只写入修改过的字段
+            String key = String.valueOf(land.getId());
+            Object section = landConfig.get(key);
+            ConfigSection saved = land.saveChanges(section instanceof ConfigSection ? (ConfigSection) section : null);
+            if (saved != section) {
+                landConfig.set(key, saved);
+            }
         }
         landConfig.save();
         modifiedLands.clear();
@@ -212,48 +328,63 @@ public final class MoneySLand extends PluginBase implements MoneySLandAPI {
             savingTask.cancel();
             savingTask = null;
         }
+
+        if (cacheRefreshTask != null) {
+            cacheRefreshTask.cancel();
+            cacheRefreshTask = null;
+        }
+
+        if (profilerTask != null) {
+            profilerTask.cancel();
+            profilerTask = null;
+        }
+
+        if (aisleSweepTask != null) {
+            aisleSweepTask.cancel();
+            aisleSweepTask = null;
+        }
+
+        if (idleChunkUnloadTask != null) {
+            idleChunkUnloadTask.cancel();
+            idleChunkUnloadTask = null;
+        }
+
+        if (homeRefillTask != null) {
+            homeRefillTask.cancel();
+            homeRefillTask = null;
+        }
+
+        if (teleportTask != null) {
+            teleportTask.cancel();
+            teleportTask = null;
+        }
     }
 
     public String translateMessage(String message) {
-        if (language.get(message) == null) {
+        MessageTemplate template = messages.get(message);
+        if (template == null) {
             return TextFormat.colorize(message);
         }
 
-        return TextFormat.colorize(language.get(message).toString());
+        return template.getText();
     }
 
     public String translateMessage(String message, Map<String, Object> args) {
-        if (language.get(message) == null) {
+        MessageTemplate template = messages.get(message);
+        if (template == null) {
             return message;
         }
 
-        String msg = translateMessage(message);
-        for (Map.Entry<String, Object> s : args.entrySet()) {
-            String key = s.getKey();
-            Object value = s.getValue();
-            if (value instanceof Double || value instanceof Float) {
-                msg = msg.replace("$" + key + "$", String.valueOf(Math.round(Double.parseDouble(value.toString()))));
-            } else {
-                msg = msg.replace("$" + key + "$", value.toString());
-            }
-        }
-        return msg;
+        return template.render(args);
     }
 
     public String translateMessage(String message, Object... keys_values) {
-        Map<String, Object> map = new HashMap<>();
-
-        String key = null;
-        for (Object o : keys_values) {
-            if (key == null) {
-                key = o.toString();
-            } else {
-                map.put(key, o);
-                key = null;
-            }
+        MessageTemplate template = messages.get(message);
+        if (template == null) {
+            return message;
         }
 
-        return translateMessage(message, map);
+        return template.render(keys_values);
     }
 
 
@@ -267,25 +398,299 @@ public final class MoneySLand extends PluginBase implements MoneySLandAPI {
         return modifiedLands;
     }
 
+    @Override
+    public SLandProtectionCache getProtectionCache() {
+        return protectionCache;
+    }
+
+    /**
+     * 获取每块地皮的实体与方块实体计数 <br>
+     * Gets the counters of entities and block entities of each land
+     *
+     * @return the counters
+     */
+    public SLandCounter getCounter() {
+        return counter;
+    }
+
+    /**
+     * 获取地皮负载采样器 <br>
+     * Gets the profiler of land load
+     *
+     * @return the profiler, or null if it is disabled in config
+     */
+    public SLandProfiler getProfiler() {
+        return profiler;
+    }
+
+    /**
+     * 获取未修改区块跟踪器 <br>
+     * Gets the tracker of chunks identical to the generator output
+     *
+     * @return the tracker, or null if it is disabled in config
+     */
+    public SLandPristineTracker getPristineTracker() {
+        return pristineTracker;
+    }
+
+    /**
+     * 获取地皮传送器 <br>
+     * Gets the teleporter which preloads chunks before teleporting to lands
+     *
+     * @return the teleporter
+     */
+    public SLandTeleporter getTeleporter() {
+        return teleporter;
+    }
+
+    /**
+     * 获取家园分配器 <br>
+     * Gets the home allocator
+     *
+     * @return the allocator, or null if no home level is set in config
+     */
+    public SLandHomeAllocator getHomeAllocator() {
+        return homeAllocator;
+    }
+
+    /**
+     * 获取红石和漏斗限制器 <br>
+     * Gets the governor of redstone updates and hopper transfers
+     *
+     * @return the governor
+     */
+    public SLandGovernor getGovernor() {
+        return governor;
+    }
+
+    /**
+     * 获取玩家所在地皮的记录器 <br>
+     * Gets the tracker of lands players are in
+     *
+     * @return the tracker
+     */
+    public SLandTracker getTracker() {
+        return tracker;
+    }
+
     @Override
     public SLand getLand(Position position) {
-        for (SLand land : lands.values()) {
-            if (land.inRange(position) || land.getShopBlock().equals(position)) {
+        SLandGrid grid = getGrid(position.getLevel());
+        if (grid == null) {
+            return null;
+        }
+        return grid.getLand(position.getFloorX(), position.getFloorZ());
+    }
+
+    /**
+     * 获取地皮世界的地皮索引 <br>
+     * Gets the land index of a land level
+     *
+     * @param level level
+     * @return the index, or null if the level is not a land level
+     */
+    public SLandGrid getGrid(Level level) {
+        if (level == null) {
+            return null;
+        }
+
+        SLandGrid grid = grids.get(level.getFolderName());
+        if (grid != null || plainLevels.contains(level.getFolderName())) {
+            return grid;
+        }
+
+        if (!SLandUtils.arrayContains(SLandGenerator.GENERATOR_NAMES, level.getProvider().getGenerator())
+                || !(level.getGenerator() instanceof SLandGenerator)) {
+            plainLevels.add(level.getFolderName());
+            return null;
+        }
+        return getGrid(level.getFolderName(), ((SLandGenerator) level.getGenerator()).getTemplate());
+    }
+
+    /**
+     * Gets the land index of a land level, creating it with {@code template} if absent.
+     * Problems of the generator settings are reported when the index is created.
+     * This method is thread-safe.
+     *
+     * @param level    level folder name
+     * @param template template of the level
+     * @return the index
+     */
+    public SLandGrid getGrid(String level, SLandTemplate template) {
+        return grids.computeIfAbsent(level, name -> {
+            for (String problem : template.getProblems()) {
+                getLogger().critical(this.translateMessage("load.settings-invalid", "level", name, "problem", problem));
+            }
+            return new SLandGrid(name, template, lands, getLevelNumber(name));
+        });
+    }
+
+    /**
+     * 获取世界在地皮 ID 中的编号, 第一次获取时分配并保存 <br>
+     * Gets the number of a level in land ids, assigned and saved when first requested
+     *
+     * @param level level folder name
+     * @return the number, or 0 if all numbers are used
+     */
+    private synchronized int getLevelNumber(String level) {
+        List<String> numbers = new ArrayList<>(levelNumbers.getStringList("levels")); //编号为下标 + 1
+        int index = numbers.indexOf(level);
+        if (index >= 0) {
+            return index + 1;
+        }
+        if (numbers.size() >= SLandGrid.MAX_LEVEL_NUMBER) {
+            getLogger().critical("Too many land levels, unbought lands in " + level + " are not available");
+            return 0;
+        }
+        numbers.add(level);
+        levelNumbers.set("levels", numbers);
+        levelNumbers.save();
+        return numbers.size();
+    }
+
+    /**
+     * Removes the index of the level, should be called when the level is unloaded
+     *
+     * @param level level
+     */
+    void removeGrid(Level level) {
+        grids.remove(level.getFolderName());
+        plainLevels.remove(level.getFolderName());
+        counter.removeLevel(level);
+    }
+
+    /**
+     * 保存一块未保存的地皮, 在地皮第一次被修改时调用. 并将地皮标记为需要写入 <br>
+     * Stores an unstored land, called when the land is modified for the first time. The land is marked to be written
+     *
+     * @param land land
+     * @return the stored land, another object if a different object with the same id is already stored, which is left unchanged
+     */
+    public SLand addLand(SLand land) {
+        SLand stored = lands.putIfAbsent(land.getId(), land);
+        if (stored != null && stored != land) {
+            return stored;
+        }
+        modifiedLands.add(land);
+        if (stored == null) {
+            SLandGrid grid = grids.get(land.getLevel());
+            if (grid != null) {
+                grid.add(land);
+            }
+        }
+        return land;
+    }
+
+    /**
+     * 地皮主人改变时调用, 更新空闲地皮索引和主人索引 <br>
+     * Should be called when the owner of a land is changed, updates the index of free lands and the index of owners
+     *
+     * @param land     land
+     * @param oldOwner the previous owner, null if the land was unowned
+     */
+    public void ownerChanged(SLand land, String oldOwner) {
+        if (oldOwner != null) {
+            Set<SLand> set = ownedLands.get(oldOwner.toLowerCase());
+            if (set != null) {
+                set.remove(land);
+            }
+        }
+        indexOwner(land);
+
+        SLandGrid grid = grids.get(land.getLevel());
+        if (grid != null) {
+            grid.ownerChanged(land);
+        }
+    }
+
+    @Override
+    public SLand getLand(int id) {
+        SLand land = lands.get(id);
+        if (land != null) {
+            return land;
+        }
+        for (SLandGrid grid : grids.values()) {
+            if ((land = grid.getLand(id)) != null) {
                 return land;
             }
         }
         return null;
     }
 
+    private void indexOwner(SLand land) {
+        if (land.isOwned()) {
+            ownedLands.computeIfAbsent(land.getOwner().toLowerCase(), k -> ConcurrentHashMap.newKeySet()).add(land);
+        }
+    }
+
     @Override
     public SLand[] getLands(String player) {
-        List<SLand> list = new ArrayList<>();
-        for (SLand land : lands.values()) {
-            if (land.getOwner().equalsIgnoreCase(player)) {
-                list.add(land);
+        Set<SLand> set = ownedLands.get(player.toLowerCase());
+        return set == null ? new SLand[0] : set.toArray(new SLand[0]);
+    }
+
+    @Override
+    public List<SLand> getLandsInArea(Level level, int minX, int minZ, int maxX, int maxZ) {
+        SLandGrid grid = getGrid(level);
+        return grid == null ? new ArrayList<>() : grid.getLandsInArea(minX, minZ, maxX, maxZ);
+    }
+
+    @Override
+    public List<SLand> getLandsInRadius(Position center, double radius) {
+        SLandGrid grid = getGrid(center.getLevel());
+        return grid == null ? new ArrayList<>() : grid.getLandsInRadius(center.getX(), center.getZ(), radius);
+    }
+
+    @Override
+    public Stream<SLand> queryLands(SLandQuery query) {
+        Stream<SLand> stream = candidates(query).filter(query::test);
+        Comparator<SLand> comparator = query.comparator();
+        return comparator == null ? stream : stream.sorted(comparator);
+    }
+
+    @Override
+    public List<SLand> queryLands(SLandQuery query, int offset, int limit) {
+        Stream<SLand> stream = candidates(query).filter(query::test);
+        Comparator<SLand> comparator = query.comparator();
+        if (comparator == null) {
+            return stream.skip(offset).limit(limit).collect(Collectors.toList());
+        }
+
+        //只保留排序后的前 offset + limit 个
+        int size = (int) Math.min(Integer.MAX_VALUE, (long) offset + limit);
+        PriorityQueue<SLand> heap = new PriorityQueue<>(comparator.reversed());
+        stream.forEach(land -> {
+            heap.offer(land);
+            if (heap.size() > size) {
+                heap.poll();
+            }
+        });
+        List<SLand> list = new ArrayList<>(heap);
+        list.sort(comparator);
+        return offset >= list.size() ? Collections.emptyList() : list.subList(offset, list.size());
+    }
+
+    /**
+     * 从最有选择性的索引中选择候选地皮
+     */
+    private Stream<SLand> candidates(SLandQuery query) {
+        if (query.getOwnerPrefix() != null) {
+            if (Boolean.FALSE.equals(query.getOwned())) {
+                return Stream.empty();
+            }
+            String prefix = query.getOwnerPrefix();
+            return ownedLands.subMap(prefix, prefix + Character.MAX_VALUE).values().stream().flatMap(Set::stream);
+        }
+        if (Boolean.TRUE.equals(query.getOwned())) {
+            return ownedLands.values().stream().flatMap(Set::stream);
+        }
+        if (query.getLevel() != null) {
+            SLandGrid grid = grids.get(query.getLevel());
+            if (grid != null) {
+                return grid.getStoredLands().stream();
             }
         }
-        return list.toArray(new SLand[list.size()]);
+        return lands.values().stream();
     }
 
     @Override
@@ -1,9 +1,15 @@
 package money;
 
 import cn.nukkit.Player;
+import cn.nukkit.level.Level;
 import cn.nukkit.level.Position;
 import money.sland.SLand;
 import money.sland.SLandPool;
+import money.sland.SLandProtectionCache;
+import money.sland.SLandQuery;
+
+import java.util.List;
+import java.util.stream.Stream;
 
 /**
  * API
@@ -39,6 +45,17 @@ public interface MoneySLandAPI {
 	 */
 	SLandPool getModifiedLandPool();
 
+	/**
+	 * 获取玩家权限判定缓存 <br>
+	 * Gets the cache of protection decisions
+	 * <p>
+	 * 修改玩家权限后可调用 {@link SLandProtectionCache#invalidate(Player)} 使缓存立即失效 <br>
+	 * Call {@link SLandProtectionCache#invalidate(Player)} after changing permissions of a player to make it take effect immediately.
+	 *
+	 * @return 权限判定缓存 <br>the cache of protection decisions
+	 */
+	SLandProtectionCache getProtectionCache();
+
 	/**
 	 * 获取包含这个坐标的地皮 <br>
 	 * Gets the land which includes {@code position}
@@ -49,6 +66,42 @@ public interface MoneySLandAPI {
 	 */
 	SLand getLand(Position position);
 
+	/**
+	 * 获取这个 ID 的地皮, 包括未被购买且还未保存的地皮 <br>
+	 * Gets the land with the id, including unowned lands which are not stored yet
+	 *
+	 * @param id 地皮 ID <br>land id
+	 *
+	 * @return 地皮, 不存在或所在世界未加载时为 null <br>the land, or null if not found or its level is not loaded
+	 */
+	SLand getLand(int id);
+
+	/**
+	 * 获取与矩形区域相交的所有地皮 (包括边框). 按网格枚举, 开销与结果数量成正比 <br>
+	 * Gets all lands (including frames) intersecting the rectangle.
+	 * Grid cells are enumerated, so the cost is proportional to the count of results, not to the size of the level or the land pool.
+	 *
+	 * @param level 世界 <br>the level
+	 * @param minX  最小 x (包含) <br>min x, inclusive
+	 * @param minZ  最小 z (包含) <br>min z, inclusive
+	 * @param maxX  最大 x (包含) <br>max x, inclusive
+	 * @param maxZ  最大 z (包含) <br>max z, inclusive
+	 *
+	 * @return 地皮, 包括未被购买且还未保存的地皮. 不是地皮世界时为空 <br>the lands, including unowned lands which are not stored yet. Empty if the level is not a land level
+	 */
+	List<SLand> getLandsInArea(Level level, int minX, int minZ, int maxX, int maxZ);
+
+	/**
+	 * 获取与以这个坐标为圆心的圆相交的所有地皮 (包括边框), 只考虑 x 和 z <br>
+	 * Gets all lands (including frames) intersecting the circle around {@code center}, only x and z are considered
+	 *
+	 * @param center 圆心 <br>the center
+	 * @param radius 半径 (方块) <br>radius in blocks
+	 *
+	 * @return 地皮, 包括未被购买且还未保存的地皮. 不是地皮世界时为空 <br>the lands, including unowned lands which are not stored yet. Empty if the level is not a land level
+	 */
+	List<SLand> getLandsInRadius(Position center, double radius);
+
 	/**
 	 * 获取这个玩家拥有的所有地皮 <br>
 	 * Gets all lands which the player owned
@@ -59,6 +112,28 @@ public interface MoneySLandAPI {
 	 */
 	SLand[] getLands(String player);
 
+	/**
+	 * 查询地皮. 结果是惰性的, 按主人, 世界等索引选择候选地皮, 不会复制整个地皮池 <br>
+	 * Queries lands. The results are lazy, candidates are picked from the indexes of owners or levels, the land pool is never copied.
+	 *
+	 * @param query 查询条件 <br>conditions
+	 *
+	 * @return 符合条件的地皮, 若指定了排序则已排序 <br>matching lands, sorted if the query has a sort key
+	 */
+	Stream<SLand> queryLands(SLandQuery query);
+
+	/**
+	 * 分页查询地皮. 排序时只保留前 offset + limit 个结果 <br>
+	 * Queries one page of lands. When sorting, only the first offset + limit results are kept in memory.
+	 *
+	 * @param query  查询条件 <br>conditions
+	 * @param offset 跳过的结果数量 <br>count of results to skip
+	 * @param limit  最多返回的数量 <br>max count of results
+	 *
+	 * @return 这一页的地皮 <br>lands in the page
+	 */
+	List<SLand> queryLands(SLandQuery query, int offset, int limit);
+
 	/**
 	 * 购买地皮 <br>
 	 * Buy a land
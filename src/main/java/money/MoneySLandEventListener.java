@@ -3,26 +3,57 @@ package money;
 import cn.nukkit.Player;
 import cn.nukkit.Server;
 import cn.nukkit.block.Block;
+import cn.nukkit.entity.Entity;
 import cn.nukkit.event.EventHandler;
 import cn.nukkit.event.EventPriority;
 import cn.nukkit.event.Listener;
 import cn.nukkit.event.block.BlockBreakEvent;
+import cn.nukkit.event.block.BlockIgniteEvent;
+import cn.nukkit.event.block.BlockPistonEvent;
 import cn.nukkit.event.block.BlockPlaceEvent;
+import cn.nukkit.event.block.BlockSpreadEvent;
+import cn.nukkit.event.block.BlockUpdateEvent;
+import cn.nukkit.event.block.LiquidFlowEvent;
+import cn.nukkit.event.entity.CreatureSpawnEvent;
+import cn.nukkit.event.entity.EntityDespawnEvent;
+import cn.nukkit.event.entity.EntityExplodeEvent;
+import cn.nukkit.event.entity.EntityLevelChangeEvent;
+import cn.nukkit.event.entity.EntitySpawnEvent;
+import cn.nukkit.event.inventory.InventoryMoveItemEvent;
+import cn.nukkit.event.level.ChunkLoadEvent;
+import cn.nukkit.event.level.ChunkPopulateEvent;
+import cn.nukkit.event.level.ChunkUnloadEvent;
+import cn.nukkit.event.level.LevelUnloadEvent;
 import cn.nukkit.event.player.PlayerInteractEvent;
+import cn.nukkit.event.player.PlayerJoinEvent;
+import cn.nukkit.event.player.PlayerMoveEvent;
+import cn.nukkit.event.player.PlayerQuitEvent;
+import cn.nukkit.event.player.PlayerTeleportEvent;
+import cn.nukkit.event.redstone.RedstoneUpdateEvent;
 import cn.nukkit.item.Item;
+import cn.nukkit.level.Level;
+import cn.nukkit.level.Location;
 import cn.nukkit.level.Position;
 import me.onebone.economyapi.EconomyAPI;
 import money.generator.SLandGenerator;
+import money.generator.SLandLayout;
 import money.sland.SLand;
+import money.sland.SLandCounter;
+import money.sland.SLandGrid;
+import money.sland.SLandHomeAllocator;
+import money.sland.SLandPristineTracker;
+import money.sland.SLandProfiler;
+import money.sland.SLandProtectionCache;
 import money.utils.ActionType;
 import money.utils.SLandPermissions;
-import money.utils.SLandUtils;
 import money.utils.StringAligner;
 
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 /**
  * @author Him188 @ MoneySLand Project
@@ -35,14 +66,6 @@ public final class MoneySLandEventListener implements Listener {
         this.plugin = plugin;
     }
 
-    private static boolean isShopBlock(Block block) {
-        try {
-            return MoneySLand.getInstance().getLandPool().values().stream().filter((land) -> land.getShopBlock().equals(block)).count() != 0;
-        } catch (Exception e) {
-            return false;
-        }
-    }
-
     private static Method METHOD;
 
     static {
@@ -101,40 +124,362 @@ public final class MoneySLandEventListener implements Listener {
     }
 
     private boolean testPermission(Player player, Position position, ActionType type) {
-        if (!SLandUtils.arrayContains(SLandGenerator.GENERATOR_NAMES, position.level.getProvider().getGenerator())) {
+        SLandGrid grid = this.plugin.getGrid(position.getLevel());
+        if (grid == null) {
             return true; //不处于地皮世界
         }
 
-        if (player.hasPermission(SLandPermissions.PERMISSION_BASE)) {
+        SLandProtectionCache cache = this.plugin.getProtectionCache();
+        if (cache.hasBasePermission(player)) {
             return true; //拥有顶级权限
         }
 
-        SLand land = this.plugin.getLand(position);
+        int x = position.getFloorX();
+        int z = position.getFloorZ();
+        int value = grid.getValue(x, z);
+        SLand land = value < 0 ? null : grid.getLand(x, z);
         if (land == null) {
             //不处于地皮中, 就一定处于过道区域, 检查是否拥有过道权限即可
-            return player.hasPermission(SLandPermissions.PERMISSION_INTERACT_AISLE);
+            return cache.canInteractAisle(player);
         }
 
-        if (type == ActionType.BREAK) {
-            position = position.floor();
-            if (land.getShopBlock().equals(position)) {
+        if (type == ActionType.BREAK && (value & SLandGrid.FRAME_FLAG) != 0) {
+            if (land.isShopBlock(x, position.getFloorY(), z)) {
                 if (!SLandPermissions.testPermission(player, SLandPermissions.PERMISSION_BREAK_SHOP, land.getLevelInstance().getId())) {
                     return false; //不拥有权限
                 }
-            } else if (land.isFrame(position)) {
+            } else {
                 if (!SLandPermissions.testPermission(player, SLandPermissions.PERMISSION_BREAK_FRAME, land.getLevelInstance().getId())) {
                     return false; //不拥有权限
                 }
             }
         }
 
-        return player.hasPermission(SLandPermissions.PERMISSION_MODIFY) || land.testPermission(player, type);
+        return cache.test(player, land, type);
+    }
+
+    @EventHandler(priority = EventPriority.HIGHEST, ignoreCancelled = true)
+    public void onEntityExplode(EntityExplodeEvent event) {
+        Position position = event.getPosition();
+        SLandGrid grid = this.plugin.getGrid(position.getLevel());
+        if (grid == null) {
+            return;
+        }
+
+        //只保留爆炸所在地皮内的方块, 其他地皮, 过道和边框都不会被破坏
+        List<Block> blocks = event.getBlockList();
+        List<Block> retained = grid.retainGround(blocks, grid.getValue(position.getFloorX(), position.getFloorZ()));
+        if (retained.size() != blocks.size()) {
+            event.setBlockList(retained);
+        }
+    }
+
+    private Level lastLevel;
+    private SLandLayout lastLayout;
+
+    private SLandLayout getLayout(Level level) {
+        if (level != lastLevel) {
+            SLandGrid grid = this.plugin.getGrid(level);
+            lastLayout = grid == null ? null : grid.getLayout();
+            lastLevel = level;
+        }
+        return lastLayout;
+    }
+
+    private boolean crossesBorder(Block from, Block to) {
+        SLandLayout layout = getLayout(to.getLevel());
+        return layout != null && layout.crossesBorder(from.getFloorX(), from.getFloorZ(), to.getFloorX(), to.getFloorZ());
+    }
+
+    @EventHandler(priority = EventPriority.HIGHEST, ignoreCancelled = true)
+    public void onLiquidFlow(LiquidFlowEvent event) {
+        if (crossesBorder(event.getSource(), event.getTo())) {
+            event.setCancelled();
+        }
+    }
+
+    @EventHandler(priority = EventPriority.HIGHEST, ignoreCancelled = true)
+    public void onBlockIgnite(BlockIgniteEvent event) {
+        if (event.getSource() != null && crossesBorder(event.getSource(), event.getBlock())) {
+            event.setCancelled();
+        }
+    }
+
+    @EventHandler(priority = EventPriority.HIGHEST, ignoreCancelled = true)
+    public void onBlockSpread(BlockSpreadEvent event) {
+        if (crossesBorder(event.getSource(), event.getBlock())) {
+            event.setCancelled();
+        }
+    }
+
+    @EventHandler(priority = EventPriority.HIGHEST, ignoreCancelled = true)
+    public void onPiston(BlockPistonEvent event) {
+        Block piston = event.getBlock();
+        SLandLayout layout = getLayout(piston.getLevel());
+        if (layout == null) {
+            return;
+        }
+
+        int pistonX = piston.getFloorX();
+        int pistonZ = piston.getFloorZ();
+        int sign = event.isExtending() ? 1 : -1;
+        int offsetX = event.getDirection().getXOffset() * sign;
+        int offsetZ = event.getDirection().getZOffset() * sign;
+
+        //被推动的方块的原位置和新位置都必须与活塞在同一块地皮中
+        for (Block block : event.getBlocks()) {
+            int x = block.getFloorX();
+            int z = block.getFloorZ();
+            if (layout.crossesBorder(pistonX, pistonZ, x, z) || layout.crossesBorder(pistonX, pistonZ, x + offsetX, z + offsetZ)) {
+                event.setCancelled();
+                return;
+            }
+        }
+        for (Block block : event.getDestroyedBlocks()) {
+            if (layout.crossesBorder(pistonX, pistonZ, block.getFloorX(), block.getFloorZ())) {
+                event.setCancelled();
+                return;
+            }
+        }
+        //活塞臂
+        if (layout.crossesBorder(pistonX, pistonZ, pistonX + event.getDirection().getXOffset(), pistonZ + event.getDirection().getZOffset())) {
+            event.setCancelled();
+        }
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onChunkLoad(ChunkLoadEvent event) {
+        SLandGrid grid = this.plugin.getGrid(event.getLevel());
+        if (grid != null) {
+            grid.load(event.getChunk());
+            this.plugin.getCounter().load(event.getLevel(), event.getChunk(), grid);
+        }
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onChunkPopulate(ChunkPopulateEvent event) {
+        SLandPristineTracker pristineTracker = this.plugin.getPristineTracker();
+        if (pristineTracker != null && this.plugin.getGrid(event.getLevel()) != null) {
+            pristineTracker.populated(event.getLevel(), event.getChunk());
+        }
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onChunkUnload(ChunkUnloadEvent event) {
+        SLandGrid grid = this.plugin.getGrid(event.getLevel());
+        if (grid != null) {
+            grid.unload(event.getChunk());
+            this.plugin.getCounter().unload(event.getLevel(), event.getChunk());
+        }
+        SLandPristineTracker pristineTracker = this.plugin.getPristineTracker();
+        if (pristineTracker != null) {
+            pristineTracker.unloaded(event.getLevel(), event.getChunk());
+        }
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onEntitySpawn(EntitySpawnEvent event) {
+        Entity entity = event.getEntity();
+        if (entity instanceof Player) {
+            return;
+        }
+
+        SLandGrid grid = this.plugin.getGrid(entity.getLevel());
+        if (grid != null) {
+            int value = grid.getValue(entity.getFloorX(), entity.getFloorZ());
+            if (value >= 0) {
+                this.plugin.getCounter().addEntity(entity.getId(), value & SLandGrid.ID_MASK);
+            }
+        }
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onEntityDespawn(EntityDespawnEvent event) {
+        this.plugin.getCounter().removeEntity(event.getEntity().getId());
+    }
+
+    @EventHandler(priority = EventPriority.HIGH, ignoreCancelled = true)
+    public void onCreatureSpawn(CreatureSpawnEvent event) {
+        Position position = event.getPosition();
+        SLandGrid grid = this.plugin.getGrid(position.getLevel());
+        if (grid == null) {
+            return;
+        }
+
+        if (grid.getLayout().type(position.getFloorX(), position.getFloorZ()) != SLandLayout.GROUND) {
+            event.setCancelled(); //过道和边框不属于任何人, 生成的生物不会被清理
+            return;
+        }
+
+        SLand land = grid.getLand(position.getFloorX(), position.getFloorZ());
+        if (land == null) {
+            return;
+        }
+        int limit = land.getMaxEntities() >= 0 ? land.getMaxEntities() : ((SLandGenerator) position.getLevel().getGenerator()).getMaxEntities();
+        if (limit > 0 && this.plugin.getCounter().getEntities(land.getId()) >= limit) {
+            event.setCancelled();
+        }
+    }
+
+    @EventHandler(priority = EventPriority.HIGH, ignoreCancelled = true)
+    public void blockEntityLimiter(BlockPlaceEvent event) {
+        Block block = event.getBlock();
+        if (!SLandCounter.hasBlockEntity(block.getId())) {
+            return;
+        }
+
+        SLandGrid grid = this.plugin.getGrid(block.getLevel());
+        if (grid == null) {
+            return;
+        }
+
+        SLand land = grid.getLand(block.getFloorX(), block.getFloorZ());
+        if (land == null) {
+            return;
+        }
+        int limit = land.getMaxBlockEntities() >= 0 ? land.getMaxBlockEntities() : ((SLandGenerator) block.getLevel().getGenerator()).getMaxBlockEntities();
+        SLandCounter counter = this.plugin.getCounter();
+        //计数可能包含被爆炸等方式移除的方块实体, 达到上限时重新统计
+        if (limit > 0 && counter.getBlockEntities(land.getId()) >= limit
+                && counter.recountBlockEntities(block.getLevel(), land, grid) >= limit) {
+            event.setCancelled();
+            event.getPlayer().sendMessage(this.plugin.translateMessage("land.block-entity-limit",
+                    "limit", limit
+            ));
+        }
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void blockEntityCounter(BlockPlaceEvent event) {
+        updateBlockEntity(event.getBlock(), true);
+        markModified(event.getBlock());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void blockEntityCounter(BlockBreakEvent event) {
+        updateBlockEntity(event.getBlock(), false);
+        markModified(event.getBlock());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void modificationTracker(EntityExplodeEvent event) {
+        //爆炸可能跨越多个区块, 每个区块都需要标记为已修改
+        Set<Long> chunks = new HashSet<>();
+        for (Block block : event.getBlockList()) {
+            if (chunks.add(Level.chunkHash(block.getFloorX() >> 4, block.getFloorZ() >> 4))) {
+                markModified(block);
+            }
+        }
+    }
+
+    private void markModified(Block block) {
+        SLandGrid grid = this.plugin.getGrid(block.getLevel());
+        if (grid != null) {
+            if (this.plugin.getPristineTracker() != null) {
+                this.plugin.getPristineTracker().modified(block.getLevel(), block.getFloorX(), block.getFloorZ());
+            }
+            SLand land = grid.getLand(block.getFloorX(), block.getFloorZ());
+            if (land != null && !land.isModified()) {
+                land.setModified(true);
+            }
+        }
+    }
+
+    private void updateBlockEntity(Block block, boolean placed) {
+        if (!SLandCounter.hasBlockEntity(block.getId())) {
+            return;
+        }
+
+        SLandGrid grid = this.plugin.getGrid(block.getLevel());
+        if (grid != null) {
+            int value = grid.getValue(block.getFloorX(), block.getFloorZ());
+            if (value >= 0) {
+                this.plugin.getCounter().updateBlockEntity(block.getLevel(), block.getFloorX(), block.getFloorZ(), value & SLandGrid.ID_MASK, placed);
+            }
+        }
+    }
+
+    @EventHandler(priority = EventPriority.HIGH, ignoreCancelled = true)
+    public void onRedstoneUpdate(RedstoneUpdateEvent event) {
+        if (!this.plugin.getGovernor().allowRedstone(event.getBlock())) {
+            event.setCancelled();
+        }
+    }
+
+    @EventHandler(priority = EventPriority.HIGH, ignoreCancelled = true)
+    public void onInventoryMoveItem(InventoryMoveItemEvent event) {
+        if (event.getSource() instanceof Position && !this.plugin.getGovernor().allowHopper((Position) event.getSource())) {
+            event.setCancelled(); //漏斗会在下一次传输时重试
+        }
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onBlockUpdate(BlockUpdateEvent event) {
+        SLandProfiler profiler = this.plugin.getProfiler();
+        if (profiler != null) {
+            profiler.recordBlockUpdate(event.getBlock());
+        }
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onLevelUnload(LevelUnloadEvent event) {
+        this.plugin.removeGrid(event.getLevel());
+        lastLevel = null;
+        lastLayout = null;
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onPlayerJoin(PlayerJoinEvent event) {
+        this.plugin.getProtectionCache().invalidate(event.getPlayer());
+        this.plugin.getTracker().move(event.getPlayer(), event.getPlayer()); //加入时可能已经在被禁止进入的地皮中
+
+        SLandHomeAllocator allocator = this.plugin.getHomeAllocator();
+        if (allocator != null && this.plugin.getConfig().getBoolean("home-auto-assign", false)) {
+            SLand land = allocator.assign(event.getPlayer());
+            if (land != null) {
+                event.getPlayer().sendMessage(this.plugin.translateMessage("home.assigned", "id", land.getId()));
+            }
+        }
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onPlayerQuit(PlayerQuitEvent event) {
+        this.plugin.getProtectionCache().remove(event.getPlayer());
+        this.plugin.getTracker().remove(event.getPlayer());
+    }
+
+    @EventHandler(priority = EventPriority.HIGHEST, ignoreCancelled = true)
+    public void onPlayerMove(PlayerMoveEvent event) {
+        Location from = event.getFrom();
+        Location to = event.getTo();
+        if (from.getFloorX() == to.getFloorX() && from.getFloorZ() == to.getFloorZ() && from.getLevel() == to.getLevel()) {
+            return; //没有移动到另一个方块, 不可能进入另一个网格
+        }
+
+        if (!this.plugin.getTracker().move(event.getPlayer(), to)) {
+            event.setCancelled();
+        }
+    }
+
+    @EventHandler(priority = EventPriority.HIGHEST, ignoreCancelled = true)
+    public void onPlayerTeleport(PlayerTeleportEvent event) {
+        if (!this.plugin.getTracker().move(event.getPlayer(), event.getTo())) {
+            event.setCancelled();
+        }
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onLevelChange(EntityLevelChangeEvent event) {
+        if (event.getEntity() instanceof Player) {
+            this.plugin.getProtectionCache().invalidate((Player) event.getEntity());
+        }
     }
 
     @EventHandler(priority = EventPriority.NORMAL, ignoreCancelled = true)
     public void shopActionListener(PlayerInteractEvent event) {
         Block block = event.getBlock();
-        if (!isShopBlock(block)) {
+        SLand land = this.plugin.getLand(block);
+        if (land == null || !land.isShopBlock(block.getFloorX(), block.getFloorY(), block.getFloorZ())) {
             return;
         }
 
@@ -144,13 +489,6 @@ public final class MoneySLandEventListener implements Listener {
         Player player = event.getPlayer();
 
 
-        SLand land;
-        land = this.plugin.getLand(block);
-        if (land == null) {
-            return;
-        }
-
-
         String hash = player.getUniqueId().toString() + block.hashCode();
 
         int id = item.getId();
@@ -70,7 +70,7 @@ public class ClearLandCommand extends SLandCommand implements CommandExecutor {
                     ));
                     return true;
                 }
-                land = this.getPlugin().getLandPool().get(id);
+                land = this.getPlugin().getLand(id);
                 if (land == null) {
                     sender.sendMessage(this.getPlugin().translateMessage("commands.clearland.id-invalid",
                             "id", args[0]
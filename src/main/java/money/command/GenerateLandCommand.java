@@ -12,6 +12,7 @@ import money.utils.SLandPermissions;
 import money.utils.SLandUtils;
 
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -66,6 +67,16 @@ public class GenerateLandCommand extends SLandCommand implements CommandExecutor
             settings.put("preset", SLandUtils.toPreset(settings));
         }
 
+        List<String> problems = new SLandGenerator(settings).getTemplate().getProblems();
+        if (!problems.isEmpty()) {
+            StringBuilder sb = new StringBuilder(getPlugin().translateMessage("commands.generateland.settings-invalid", "level", args[0]));
+            for (String problem : problems) {
+                sb.append("\n").append(problem);
+            }
+            sender.sendMessage(sb.toString());
+            return true;
+        }
+
         if (Server.getInstance().generateLevel(args[0], new java.util.Random().nextLong(), SLandGenerator.class, settings)) {
             sender.sendMessage(getPlugin().translateMessage(settingsName.isEmpty() ? "commands.generateland.success" : "commands.generateland.success.with.settings",
                     "level", args[0]
@@ -48,14 +48,12 @@ public class GoToLandCommand extends SLandCommand implements CommandExecutor {
 
         switch (args.length) {
             case 0:
-                for (SLand land : this.getPlugin().getLandPool().values()) {
-                    if (land.getOwner().equals(sender.getName())) {
-                        ((Player) sender).teleport(land.getShopBlock());
-                        sender.sendMessage(this.getPlugin().translateMessage("commands.gotoland.success"));
-                        return true;
-                    }
+                SLand[] lands = this.getPlugin().getLands(sender.getName());
+                if (lands.length == 0) {
+                    sender.sendMessage(this.getPlugin().translateMessage("commands.gotoland.no-anyone"));
+                    return true;
                 }
-                sender.sendMessage(this.getPlugin().translateMessage("commands.gotoland.no-anyone"));
+                teleport((Player) sender, lands[0]);
                 return true;
             case 1:
                 int id;
@@ -67,7 +65,7 @@ public class GoToLandCommand extends SLandCommand implements CommandExecutor {
                     ));
                     return true;
                 }
-                SLand land = this.getPlugin().getLandPool().get(id);
+                SLand land = this.getPlugin().getLand(id);
                 if (land == null) {
                     sender.sendMessage(this.getPlugin().translateMessage("commands.gotoland.id-invalid",
                             "id", args[0]
@@ -75,11 +73,18 @@ public class GoToLandCommand extends SLandCommand implements CommandExecutor {
                     return true;
                 }
 
-                ((Player) sender).teleport(land.getShopBlock());
-                sender.sendMessage(this.getPlugin().translateMessage("commands.gotoland.success"));
+                teleport((Player) sender, land);
                 return true;
             default:
                 return false;
         }
     }
+
+    private void teleport(Player player, SLand land) {
+        //在目标区块加载完成后传送
+        if (!this.getPlugin().getTeleporter().teleport(player, land, land.getShopBlock(),
+                () -> player.sendMessage(this.getPlugin().translateMessage("commands.gotoland.success")))) {
+            player.sendMessage(this.getPlugin().translateMessage("commands.gotoland.level-invalid", "level", land.getLevel()));
+        }
+    }
 }
@@ -10,10 +10,10 @@ import cn.nukkit.command.data.CommandParameter;
 import cn.nukkit.level.Level;
 import money.MoneySLand;
 import money.sland.SLand;
+import money.sland.SLandGrid;
 import money.utils.SLandPermissions;
 
 import java.util.HashMap;
-import java.util.stream.Stream;
 
 /**
  * @author Him188 @ MoneySLand Project
@@ -49,37 +49,36 @@ public class IdleLandCommand extends SLandCommand implements CommandExecutor {
             return true;
         }
 
-        Level level;
+        Player player = (Player) sender;
+        SLandGrid grid;
+        SLand land;
         switch (args.length) {
-            case 0:
-                level = ((Player) sender).getLevel();
+            case 0: //当前世界中离玩家最近的
+                grid = this.getPlugin().getGrid(player.getLevel());
+                land = grid == null ? null : grid.findUnownedLand(player.getFloorX(), player.getFloorZ());
                 break;
-            case 1:
-                StringBuilder levelName = new StringBuilder();
-                for (int i = 1; i < args.length; i++) {
-                    levelName.append(args[i]);
-                }
-
-                level = Server.getInstance().getLevelByName(levelName.toString());
+            case 1: //指定世界中离出生点最近的
+                Level level = Server.getInstance().getLevelByName(args[0]);
                 if (level == null) {
                     sender.sendMessage(this.getPlugin().translateMessage("commands.idleland.level-invalid"));
                     return true;
                 }
+                grid = this.getPlugin().getGrid(level);
+                land = grid == null ? null : grid.findUnownedLand();
                 break;
             default:
                 return false;
         }
 
-
-        Stream<SLand> values = this.getPlugin().getLandPool().values().stream().filter(land -> land.getLevel().equals(level.getFolderName()) && !land.isOwned());
-        SLand land;
-        if (((land = values.findFirst().orElse(null)) == null)) {
+        if (land == null) {
             sender.sendMessage(this.getPlugin().translateMessage("commands.idleland.full"));
             return true;
         }
 
-        ((Player) sender).teleport(land.getShopBlock().add(0, 2));
-        sender.sendMessage(this.getPlugin().translateMessage("commands.idleland.success"));
+        if (!this.getPlugin().getTeleporter().teleport(player, land, land.getShopBlock().add(0, 2),
+                () -> sender.sendMessage(this.getPlugin().translateMessage("commands.idleland.success")))) {
+            sender.sendMessage(this.getPlugin().translateMessage("commands.idleland.level-invalid", "level", land.getLevel()));
+        }
         return true;
     }
 }
@@ -0,0 +1,159 @@
+package money.command;
+
+import cn.nukkit.Player;
+import cn.nukkit.command.Command;
+import cn.nukkit.command.CommandExecutor;
+import cn.nukkit.command.CommandSender;
+import cn.nukkit.command.data.CommandParamType;
+import cn.nukkit.command.data.CommandParameter;
+import cn.nukkit.level.Position;
+import money.MoneySLand;
+import money.sland.SLand;
+import money.utils.SLandPermissions;
+
+import java.util.HashMap;
+import java.util.Set;
+
+/**
+ * @author Him188 @ MoneySLand Project
+ */
+public class LandDenyCommand extends SLandCommand implements CommandExecutor {
+    public LandDenyCommand(String name, MoneySLand owner) {
+        super(name, owner);
+
+        this.setPermission(
+                SLandPermissions.COMMAND_BASE + ";" +
+                        SLandPermissions.COMMAND_LANDDENY + ";" +
+                        SLandPermissions.COMMAND_LANDDENY_OTHERS
+        );
+        this.setExecutor(this);
+        this.setUsage(owner.translateMessage("commands.landdeny.usage"));
+        this.setDescription(owner.translateMessage("commands.landdeny.description"));
+        this.setCommandParameters(new HashMap<String, CommandParameter[]>() {
+            {
+                put("list", new CommandParameter[]{
+                        new CommandParameter("arg", false, new String[]{"list"}),
+                        CommandParameter.newType("地皮id", true, CommandParamType.INT),
+                });
+
+                put("player", new CommandParameter[]{
+                        new CommandParameter("arg", false, new String[]{"add", "remove"}),
+                        CommandParameter.newType("地皮id", false, CommandParamType.INT),
+                        CommandParameter.newType("玩家名字", false, CommandParamType.STRING),
+                });
+
+                put("private", new CommandParameter[]{
+                        new CommandParameter("arg", false, new String[]{"private"}),
+                        CommandParameter.newType("地皮id", false, CommandParamType.INT),
+                        new CommandParameter("状态", false, new String[]{"on", "off"}),
+                });
+            }
+        });
+    }
+
+    @Override
+    public boolean onCommand(CommandSender sender, Command command, String label, String[] args) {
+        if (!this.testPermission(sender)) {
+            return true;
+        }
+
+        if (args.length < 1) {
+            return false;
+        }
+
+        SLand land;
+        if (args.length == 1) {
+            if (!(sender instanceof Player)) {
+                sender.sendMessage(this.getPlugin().translateMessage("commands.landdeny.not-player"));
+                return true;
+            }
+            land = this.getPlugin().getLand((Position) sender);
+            if (land == null) {
+                sender.sendMessage(this.getPlugin().translateMessage("commands.landdeny.not-found"));
+                return true;
+            }
+        } else {
+            int id;
+            try {
+                id = Integer.parseInt(args[1]);
+            } catch (NumberFormatException e) {
+                sender.sendMessage(this.getPlugin().translateMessage("commands.landdeny.id-invalid",
+                        "id", args[1]
+                ));
+                return true;
+            }
+
+            land = this.getPlugin().getLand(id);
+            if (land == null) {
+                sender.sendMessage(this.getPlugin().translateMessage("commands.landdeny.id-invalid",
+                        "id", args[1]
+                ));
+                return true;
+            }
+        }
+
+        if (!sender.getName().equalsIgnoreCase(land.getOwner()) && !sender.hasPermission(SLandPermissions.COMMAND_LANDDENY_OTHERS)) {
+            sender.sendMessage(this.getPlugin().translateMessage("commands.landdeny.others.no-permission"));
+            return true;
+        }
+
+        if (args[0].equals("list")) {
+            Set<String> denied = land.getDenied();
+            StringBuilder sb = new StringBuilder(this.getPlugin().translateMessage("commands.landdeny.list.head",
+                    "count", denied.size(),
+                    "private", land.isPrivate()
+            )).append("\n");
+            for (String s : denied) {
+                sb.append(this.getPlugin().translateMessage("commands.landdeny.list.content",
+                        "name", s
+                )).append("\n");
+            }
+            sender.sendMessage(sb.toString());
+            return true;
+        }
+
+        if (args.length < 3) {
+            return false;
+        }
+
+        //  /landdeny add 0 test
+        String name = args[2];
+        switch (args[0]) {
+            case "add":
+                if (name.equalsIgnoreCase(land.getOwner()) || land.isInvited(name)) {
+                    sender.sendMessage(this.getPlugin().translateMessage("commands.landdeny.add.owner"));
+                    return true;
+                }
+
+                sender.sendMessage(this.getPlugin().translateMessage(land.addDenied(name) ? "commands.landdeny.add.success" : "commands.landdeny.add.failed",
+                        "name", name
+                ));
+                return true;
+            case "remove":
+                sender.sendMessage(this.getPlugin().translateMessage(land.removeDenied(name) ? "commands.landdeny.remove.success" : "commands.landdeny.remove.failed",
+                        "name", name
+                ));
+                return true;
+            case "private":
+                boolean privateLand;
+                switch (name) {
+                    case "on":
+                        privateLand = true;
+                        break;
+                    case "off":
+                        privateLand = false;
+                        break;
+                    default:
+                        return false;
+                }
+
+                land.setPrivate(privateLand);
+                sender.sendMessage(this.getPlugin().translateMessage(privateLand ? "commands.landdeny.private.on" : "commands.landdeny.private.off",
+                        "id", land.getId()
+                ));
+                return true;
+        }
+
+        return false;
+    }
+}
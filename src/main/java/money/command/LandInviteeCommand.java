@@ -83,7 +83,7 @@ public class LandInviteeCommand extends SLandCommand implements CommandExecutor
                 return true;
             }
 
-            land = this.getPlugin().getLandPool().get(id);
+            land = this.getPlugin().getLand(id);
             if (land == null) {
                 sender.sendMessage(this.getPlugin().translateMessage("commands.landinvitee.id-invalid",
                         "id", args[1]
@@ -0,0 +1,150 @@
+package money.command;
+
+import cn.nukkit.command.Command;
+import cn.nukkit.command.CommandExecutor;
+import cn.nukkit.command.CommandSender;
+import cn.nukkit.command.data.CommandParamType;
+import cn.nukkit.command.data.CommandParameter;
+import money.MoneySLand;
+import money.sland.SLand;
+import money.sland.SLandQuery;
+import money.utils.SLandPermissions;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * @author Him188 @ MoneySLand Project
+ */
+public class LandSearchCommand extends SLandCommand implements CommandExecutor {
+    private static final int PAGE_SIZE = 10;
+    private static final long DAY_MILLIS = 24 * 60 * 60 * 1000L;
+
+    public LandSearchCommand(String name, MoneySLand owner) {
+        super(name, owner);
+
+        this.setPermission(
+                SLandPermissions.COMMAND_BASE + ";" +
+                        SLandPermissions.COMMAND_LANDSEARCH
+        );
+        this.setExecutor(this);
+        this.setUsage(owner.translateMessage("commands.landsearch.usage"));
+        this.setDescription(owner.translateMessage("commands.landsearch.description"));
+        this.setCommandParameters(new HashMap<String, CommandParameter[]>() {
+            {
+                put("default", new CommandParameter[]{
+                        CommandParameter.newType("条件", true, CommandParamType.RAWTEXT),
+                });
+            }
+        });
+    }
+
+    @Override
+    public boolean onCommand(CommandSender sender, Command command, String label, String[] args) {
+        if (!this.testPermission(sender)) {
+            return true;
+        }
+
+        SLandQuery query = new SLandQuery();
+        SLandQuery.Sort sort = null;
+        boolean descending = false;
+        int minSquare = 0;
+        int maxSquare = Integer.MAX_VALUE;
+        long after = Long.MIN_VALUE;
+        long before = Long.MAX_VALUE;
+        int page = 1;
+
+        long now = System.currentTimeMillis();
+        for (String arg : args) {
+            String[] kv = arg.split(":", 2);
+            try {
+                if (kv.length == 1) {
+                    page = Integer.parseInt(arg);
+                    if (page < 1) {
+                        throw new IllegalArgumentException();
+                    }
+                    continue;
+                }
+
+                switch (kv[0].toLowerCase()) {
+                    case "owner":
+                        query.ownerPrefix(kv[1]);
+                        break;
+                    case "level":
+                        query.level(kv[1]);
+                        break;
+                    case "owned":
+                        query.owned(parseBoolean(kv[1]));
+                        break;
+                    case "minsize":
+                        minSquare = Integer.parseInt(kv[1]);
+                        break;
+                    case "maxsize":
+                        maxSquare = Integer.parseInt(kv[1]);
+                        break;
+                    case "newer": //最近 N 天内创建的
+                        after = now - Long.parseLong(kv[1]) * DAY_MILLIS;
+                        break;
+                    case "older": //N 天以前创建的
+                        before = now - Long.parseLong(kv[1]) * DAY_MILLIS;
+                        break;
+                    case "sort":
+                        descending = kv[1].startsWith("-");
+                        sort = SLandQuery.Sort.valueOf((descending ? kv[1].substring(1) : kv[1]).toUpperCase());
+                        break;
+                    default:
+                        throw new IllegalArgumentException();
+                }
+            } catch (IllegalArgumentException e) { //包括 NumberFormatException
+                sender.sendMessage(this.getPlugin().translateMessage("commands.landsearch.condition-invalid", "condition", arg));
+                return true;
+            }
+        }
+        query.square(minSquare, maxSquare).time(after, before);
+
+        long count = this.getPlugin().queryLands(query).count(); //未排序, 不会复制结果
+        if (count == 0) {
+            sender.sendMessage(this.getPlugin().translateMessage("commands.landsearch.empty"));
+            return true;
+        }
+        long pages = (count + PAGE_SIZE - 1) / PAGE_SIZE;
+        page = (int) Math.min(page, pages);
+
+        query.sort(sort, descending);
+        List<SLand> lands = this.getPlugin().queryLands(query, (page - 1) * PAGE_SIZE, PAGE_SIZE);
+
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd");
+        StringBuilder sb = new StringBuilder(this.getPlugin().translateMessage("commands.landsearch.head",
+                "count", count,
+                "page", page,
+                "pages", pages
+        ));
+        for (SLand land : lands) {
+            sb.append("\n").append(this.getPlugin().translateMessage("commands.landsearch.content",
+                    "id", land.getId(),
+                    "owner", land.isOwned() ? land.getOwner() : "无",
+                    "square", land.getSquare(),
+                    "level", land.getLevel(),
+                    "time", format.format(new Date(land.getTime()))
+            ));
+        }
+
+        sender.sendMessage(sb.toString());
+        return true;
+    }
+
+    private static Boolean parseBoolean(String value) {
+        switch (value.toLowerCase()) {
+            case "yes":
+            case "true":
+                return true;
+            case "no":
+            case "false":
+                return false;
+            default:
+                throw new IllegalArgumentException(value);
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package money.command;
+
+import cn.nukkit.Server;
+import cn.nukkit.command.Command;
+import cn.nukkit.command.CommandExecutor;
+import cn.nukkit.command.CommandSender;
+import cn.nukkit.command.data.CommandParamType;
+import cn.nukkit.command.data.CommandParameter;
+import cn.nukkit.level.Level;
+import money.MoneySLand;
+import money.tasks.PregenerateTask;
+import money.utils.SLandPermissions;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * @author Him188 @ MoneySLand Project
+ */
+public class PregenLandCommand extends SLandCommand implements CommandExecutor {
+    private final Map<String, PregenerateTask> tasks = new HashMap<>();
+
+    public PregenLandCommand(String name, MoneySLand owner) {
+        super(name, owner);
+
+        this.setPermission(
+                SLandPermissions.COMMAND_BASE + ";" +
+                        SLandPermissions.COMMAND_PREGENLAND
+        );
+        this.setExecutor(this);
+        this.setUsage(owner.translateMessage("commands.pregenland.usage"));
+        this.setDescription(owner.translateMessage("commands.pregenland.description"));
+        this.setCommandParameters(new HashMap<String, CommandParameter[]>() {
+            {
+                put("2args", new CommandParameter[]{
+                        CommandParameter.newType("世界名称", false, CommandParamType.STRING),
+                        CommandParameter.newType("半径", false, CommandParamType.INT),
+                });
+
+                put("stop", new CommandParameter[]{
+                        CommandParameter.newType("世界名称", false, CommandParamType.STRING),
+                        new CommandParameter("arg", false, new String[]{"stop"}),
+                });
+            }
+        });
+    }
+
+    @Override
+    public boolean onCommand(CommandSender sender, Command command, String label, String[] args) {
+        if (!this.testPermission(sender)) {
+            return true;
+        }
+
+        if (args.length < 2) {
+            return false;
+        }
+
+        Level level = Server.getInstance().getLevelByName(args[0]);
+        if (level == null || this.getPlugin().getGrid(level) == null) {
+            sender.sendMessage(this.getPlugin().translateMessage("commands.pregenland.level-invalid", "level", args[0]));
+            return true;
+        }
+
+        PregenerateTask task = tasks.get(level.getFolderName());
+        if (task != null && task.isFinished()) {
+            tasks.remove(level.getFolderName());
+            task = null;
+        }
+
+        if (args[1].equals("stop")) {
+            if (task == null) {
+                sender.sendMessage(this.getPlugin().translateMessage("commands.pregenland.not-running", "level", level.getFolderName()));
+            } else {
+                task.cancel();
+                tasks.remove(level.getFolderName());
+            }
+            return true;
+        }
+
+        if (task != null) {
+            sender.sendMessage(this.getPlugin().translateMessage("commands.pregenland.running", "level", level.getFolderName()));
+            return true;
+        }
+
+        int radius;
+        try {
+            radius = Integer.parseInt(args[1]);
+        } catch (NumberFormatException e) {
+            return false;
+        }
+        if (radius < 0) {
+            return false;
+        }
+
+        int concurrency = this.getPlugin().getConfig().getInt("pregen-concurrency", 0);
+        if (concurrency <= 0) {
+            concurrency = Server.getInstance().getScheduler().getAsyncTaskPoolSize() * 4;
+        }
+
+        task = new PregenerateTask(this.getPlugin(), level, sender, radius, concurrency);
+        Server.getInstance().getScheduler().scheduleRepeatingTask(task, 1);
+        tasks.put(level.getFolderName(), task);
+
+        sender.sendMessage(this.getPlugin().translateMessage("commands.pregenland.started",
+                "level", level.getFolderName(),
+                "total", task.getTotal(),
+                "lands", (2L * radius + 1) * (2L * radius + 1),
+                "concurrency", concurrency
+        ));
+        return true;
+    }
+}
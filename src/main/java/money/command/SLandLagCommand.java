@@ -0,0 +1,127 @@
+package money.command;
+
+import cn.nukkit.command.Command;
+import cn.nukkit.command.CommandExecutor;
+import cn.nukkit.command.CommandSender;
+import cn.nukkit.command.data.CommandParamType;
+import cn.nukkit.command.data.CommandParameter;
+import money.MoneySLand;
+import money.sland.SLand;
+import money.sland.SLandGovernor;
+import money.sland.SLandProfiler;
+import money.utils.SLandPermissions;
+
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * @author Him188 @ MoneySLand Project
+ */
+public class SLandLagCommand extends SLandCommand implements CommandExecutor {
+    private static final int DEFAULT_COUNT = 10;
+
+    public SLandLagCommand(String name, MoneySLand owner) {
+        super(name, owner);
+
+        this.setPermission(
+                SLandPermissions.COMMAND_BASE + ";" +
+                        SLandPermissions.COMMAND_SLANDLAG
+        );
+        this.setExecutor(this);
+        this.setUsage(owner.translateMessage("commands.slandlag.usage"));
+        this.setDescription(owner.translateMessage("commands.slandlag.description"));
+        this.setCommandParameters(new HashMap<String, CommandParameter[]>() {
+            {
+                put("2arg", new CommandParameter[]{
+                        new CommandParameter("时间", true, new String[]{"1m", "5m", "15m"}),
+                        CommandParameter.newType("数量", true, CommandParamType.INT),
+                });
+
+                put("throttled", new CommandParameter[]{
+                        new CommandParameter("arg", false, new String[]{"throttled"}),
+                });
+            }
+        });
+    }
+
+    @Override
+    public boolean onCommand(CommandSender sender, Command command, String label, String[] args) {
+        if (!this.testPermission(sender)) {
+            return true;
+        }
+
+        if (args.length >= 1 && args[0].equals("throttled")) {
+            List<SLandGovernor.Record> records = this.getPlugin().getGovernor().getThrottled();
+            StringBuilder sb = new StringBuilder(this.getPlugin().translateMessage("commands.slandlag.throttled.head",
+                    "count", records.size()
+            )).append("\n");
+            for (SLandGovernor.Record record : records) {
+                SLand land = this.getPlugin().getLand(record.getLand());
+                sb.append(this.getPlugin().translateMessage(record.isFlagged() ? "commands.slandlag.throttled.flagged" : "commands.slandlag.throttled.content",
+                        "id", record.getLand(),
+                        "owner", land != null && land.isOwned() ? land.getOwner() : "无",
+                        "ticks", record.getTotalThrottledTicks(),
+                        "offences", record.getOffences()
+                )).append("\n");
+            }
+            sender.sendMessage(sb.toString());
+            return true;
+        }
+
+        SLandProfiler profiler = this.getPlugin().getProfiler();
+        if (profiler == null) {
+            sender.sendMessage(this.getPlugin().translateMessage("commands.slandlag.disabled"));
+            return true;
+        }
+
+        String window = args.length >= 1 ? args[0] : "1m";
+        long windowMillis;
+        switch (window) {
+            case "1m":
+                windowMillis = 60 * 1000;
+                break;
+            case "5m":
+                windowMillis = 5 * 60 * 1000;
+                break;
+            case "15m":
+                windowMillis = 15 * 60 * 1000;
+                break;
+            default:
+                return false;
+        }
+
+        int count = DEFAULT_COUNT;
+        if (args.length >= 2) {
+            try {
+                count = Math.max(1, Integer.parseInt(args[1]));
+            } catch (NumberFormatException e) {
+                return false;
+            }
+        }
+
+        List<SLandProfiler.Cost> costs = profiler.top(windowMillis, count);
+        if (costs.isEmpty()) {
+            sender.sendMessage(this.getPlugin().translateMessage("commands.slandlag.empty"));
+            return true;
+        }
+
+        StringBuilder sb = new StringBuilder(this.getPlugin().translateMessage("commands.slandlag.head",
+                "window", window,
+                "overhead", String.format("%.2f", profiler.getOverhead() * 100)
+        )).append("\n");
+        int rank = 0;
+        for (SLandProfiler.Cost cost : costs) {
+            SLand land = this.getPlugin().getLand(cost.getLand());
+            sb.append(this.getPlugin().translateMessage("commands.slandlag.content",
+                    "rank", ++rank,
+                    "id", cost.getLand(),
+                    "owner", land != null && land.isOwned() ? land.getOwner() : "无",
+                    "entities", String.format("%.1f", cost.getPerTick(SLandProfiler.ENTITY)),
+                    "blockentities", String.format("%.1f", cost.getPerTick(SLandProfiler.BLOCK_ENTITY)),
+                    "updates", String.format("%.1f", cost.getPerTick(SLandProfiler.BLOCK_UPDATE))
+            )).append("\n");
+        }
+        sender.sendMessage(sb.toString());
+        return true;
+    }
+}
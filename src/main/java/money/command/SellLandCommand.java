@@ -74,7 +74,7 @@ public class SellLandCommand extends SLandCommand implements CommandExecutor {
                     ));
                     return true;
                 }
-                land = this.getPlugin().getLandPool().get(id);
+                land = this.getPlugin().getLand(id);
                 if (land == null) {
                     sender.sendMessage(this.getPlugin().translateMessage("commands.sellland.id-invalid",
                             "id", args[0]
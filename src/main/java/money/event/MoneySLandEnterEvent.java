@@ -0,0 +1,44 @@
+package money.event;
+
+import cn.nukkit.Player;
+import cn.nukkit.event.Cancellable;
+import cn.nukkit.event.HandlerList;
+import money.sland.SLand;
+
+/**
+ * 玩家进入地皮时调用. 在上一块地皮的 {@link MoneySLandLeaveEvent} 之前调用, 取消后玩家无法进入 <br>
+ * Called when a player enters a land, before the {@link MoneySLandLeaveEvent} of the previous land.
+ * The player can't enter the land if the event is cancelled.
+ *
+ * @author Him188 @ MoneySLand Project
+ */
+public class MoneySLandEnterEvent extends MoneySLandEvent implements Cancellable {
+    private static final HandlerList handlers = new HandlerList();
+
+    public static HandlerList getHandlers() {
+        return handlers;
+    }
+
+
+    private final Player player;
+    private final SLand from;
+
+    public MoneySLandEnterEvent(SLand land, Player player, SLand from) {
+        super(land);
+        this.player = player;
+        this.from = from; //nullable
+    }
+
+    public Player getPlayer() {
+        return player;
+    }
+
+    /**
+     * Gets the land the player comes from
+     *
+     * @return the land, or null if the player comes from aisle or other levels
+     */
+    public SLand getFrom() {
+        return from;
+    }
+}
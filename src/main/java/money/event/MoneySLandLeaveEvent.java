@@ -0,0 +1,42 @@
+package money.event;
+
+import cn.nukkit.Player;
+import cn.nukkit.event.HandlerList;
+import money.sland.SLand;
+
+/**
+ * 玩家离开地皮时调用 <br>
+ * Called when a player leaves a land
+ *
+ * @author Him188 @ MoneySLand Project
+ */
+public class MoneySLandLeaveEvent extends MoneySLandEvent {
+    private static final HandlerList handlers = new HandlerList();
+
+    public static HandlerList getHandlers() {
+        return handlers;
+    }
+
+
+    private final Player player;
+    private final SLand to;
+
+    public MoneySLandLeaveEvent(SLand land, Player player, SLand to) {
+        super(land);
+        this.player = player;
+        this.to = to; //nullable
+    }
+
+    public Player getPlayer() {
+        return player;
+    }
+
+    /**
+     * Gets the land the player goes to
+     *
+     * @return the land, or null if the player goes to aisle or other levels
+     */
+    public SLand getTo() {
+        return to;
+    }
+}
@@ -27,6 +27,7 @@ public class MoneySLandOwnerChangeEvent extends MoneySLandEvent implements Cance
         BUY,
         TRANSFER,
         SELL,
+        ASSIGN, // home assigned by the allocator
         PLUGIN, // for other plugins
     }
 
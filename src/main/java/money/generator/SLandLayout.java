@@ -0,0 +1,447 @@
+package money.generator;
+
+/**
+ * 地皮世界的布局. 由生成器设置计算, 不可变 <br>
+ * Geometry of a land level, computed from the generator settings. Immutable.
+ * <p>
+ * 世界在每个轴上按 {@code widths} 划分为宽度不同的网格, 并以所有宽度之和为周期重复 (超级图块).
+ * 一块地皮占一个网格, 因此同一世界中可以有不同大小的地皮. 只有一个宽度时所有地皮大小相同. <br>
+ * On each axis the level is divided into cells of {@code widths}, repeating with the sum of all widths as the period (the super-tile).
+ * A land occupies one cell, so lands of different sizes can share one level. With a single width all lands are of the same size.
+ * <p>
+ * 超级图块内每一列的类型和网格都预先计算为查找表, 因此查询的开销与布局的复杂程度无关. <br>
+ * The type and the cell of every column in the super-tile are precomputed into lookup tables, so lookups cost the same however complex the layout is.
+ * <p>
+ * 负坐标一侧是正坐标一侧的镜像(与 {@link SLandGenerator} 生成的方块一致). <br>
+ * The negative side mirrors the positive side, the same as the blocks generated by {@link SLandGenerator}.
+ *
+ * @author Him188 @ MoneySLand Project
+ */
+public final class SLandLayout {
+    public static final byte GROUND = 0;
+    public static final byte FRAME = 1;
+    public static final byte AISLE = 2;
+
+    /**
+     * 超级图块的最大宽度, 限制二维查找表的大小
+     */
+    public static final int MAX_TILE_WIDTH = 1024;
+
+    private final int[] widths;
+    private final int tileWidth;
+    private final int aisleWidth;
+    private final int frameWidth;
+    private final boolean broken;
+
+    /**
+     * 每个网格在超级图块内的起始位置, 最后一个值为超级图块的宽度
+     */
+    private final int[] starts;
+
+    /**
+     * 超级图块内每一列在一个轴上的类型, 所在网格, 以及在网格中的偏移
+     */
+    private final byte[] types;
+    private final int[] cells;
+    private final int[] offsets;
+
+    /**
+     * 超级图块内每一列的类型, 下标为 offsetZ * tileWidth + offsetX
+     */
+    private final byte[] tileTypes;
+
+    public SLandLayout(int totalWidth, int aisleWidth, int frameWidth) {
+        this(new int[]{totalWidth}, aisleWidth, frameWidth);
+    }
+
+    /**
+     * @param widths     total widths (including aisles and frames) of the cells in the super-tile on each axis
+     * @param aisleWidth width of half of the aisle between two lands
+     * @param frameWidth width of the frame of a land
+     */
+    public SLandLayout(int[] widths, int aisleWidth, int frameWidth) {
+        if (widths.length == 0) {
+            throw new IllegalArgumentException("widths must not be empty");
+        }
+        this.widths = widths.clone();
+        this.aisleWidth = aisleWidth;
+        this.frameWidth = frameWidth;
+
+        this.starts = new int[widths.length + 1];
+        boolean broken = false;
+        for (int i = 0; i < widths.length; i++) {
+            if (widths[i] <= 0) {
+                throw new IllegalArgumentException("widths must be positive");
+            }
+            broken |= widths[i] - 2 * aisleWidth - 2 * frameWidth < 0;
+            starts[i + 1] = starts[i] + widths[i];
+        }
+        this.broken = broken;
+        this.tileWidth = starts[widths.length];
+        if (tileWidth > MAX_TILE_WIDTH) {
+            throw new IllegalArgumentException("sum of widths must not be greater than " + MAX_TILE_WIDTH);
+        }
+
+        this.types = new byte[tileWidth];
+        this.cells = new int[tileWidth];
+        this.offsets = new int[tileWidth];
+        for (int cell = 0; cell < widths.length; cell++) {
+            int width = widths[cell];
+            for (int i = 0; i < width; i++) {
+                int position = starts[cell] + i;
+                cells[position] = cell;
+                offsets[position] = i;
+                if (broken || i < aisleWidth || i >= width - aisleWidth) {
+                    types[position] = AISLE;
+                } else if (i < aisleWidth + frameWidth || i >= width - aisleWidth - frameWidth) {
+                    types[position] = FRAME;
+                } else {
+                    types[position] = GROUND;
+                }
+            }
+        }
+
+        this.tileTypes = new byte[tileWidth * tileWidth];
+        for (int z = 0; z < tileWidth; z++) {
+            for (int x = 0; x < tileWidth; x++) {
+                tileTypes[z * tileWidth + x] = types[x] > types[z] ? types[x] : types[z];
+            }
+        }
+    }
+
+    /**
+     * Gets the total widths of the cells in the super-tile
+     *
+     * @return a copy of the widths
+     */
+    public int[] getWidths() {
+        return widths.clone();
+    }
+
+    /**
+     * Gets the width of the super-tile, which is the period of the layout on each axis
+     *
+     * @return the sum of all widths
+     */
+    public int getTileWidth() {
+        return tileWidth;
+    }
+
+    public int getAisleWidth() {
+        return aisleWidth;
+    }
+
+    public int getFrameWidth() {
+        return frameWidth;
+    }
+
+    /**
+     * Gets the total width (including aisles and frames) of a cell
+     *
+     * @param cell cell index
+     * @return the width
+     */
+    public int getCellWidth(int cell) {
+        return widths[(cell >= 0 ? cell : -cell - 1) % widths.length];
+    }
+
+    /**
+     * Gets the length of the land in a cell including frames, which is the real length of {@link money.sland.SLand#getX()}
+     *
+     * @param cell cell index
+     * @return the length of the land including frames
+     */
+    public int getLandWidth(int cell) {
+        return getCellWidth(cell) - 2 * aisleWidth;
+    }
+
+    public boolean isBroken() {
+        return broken;
+    }
+
+    /**
+     * 在超级图块中的位置, 负坐标一侧为镜像
+     */
+    private int tileOffset(int coordinate) {
+        return coordinate >= 0 ? coordinate % tileWidth : -(coordinate % tileWidth);
+    }
+
+    /**
+     * Gets the offset of {@code coordinate} in its cell
+     *
+     * @param coordinate x or z
+     * @return offset in range 0 to width of the cell - 1
+     */
+    public int offset(int coordinate) {
+        return offsets[tileOffset(coordinate)];
+    }
+
+    /**
+     * Gets the type of the column on one axis
+     *
+     * @param coordinate x or z
+     * @return {@link #GROUND}, {@link #FRAME} or {@link #AISLE}
+     */
+    public byte type(int coordinate) {
+        return types[tileOffset(coordinate)];
+    }
+
+    /**
+     * Gets the type of the column
+     *
+     * @param x x
+     * @param z z
+     * @return {@link #GROUND}, {@link #FRAME} or {@link #AISLE}
+     */
+    public byte type(int x, int z) {
+        return tileTypes[tileOffset(z) * tileWidth + tileOffset(x)];
+    }
+
+    /**
+     * Gets the cell index of {@code coordinate} on one axis
+     *
+     * @param coordinate x or z
+     * @return cell index, negative on the negative side
+     */
+    public int cell(int coordinate) {
+        if (coordinate >= 0) {
+            return coordinate / tileWidth * widths.length + cells[coordinate % tileWidth];
+        }
+        return -(-coordinate / tileWidth * widths.length + cells[-coordinate % tileWidth]) - 1;
+    }
+
+    /**
+     * 正坐标一侧网格的起始坐标
+     */
+    private int start(int cell) {
+        return cell / widths.length * tileWidth + starts[cell % widths.length];
+    }
+
+    /**
+     * Gets the coordinate of the first frame column of a cell, which is also the coordinate of the shop block
+     *
+     * @param cell cell index
+     * @return the coordinate
+     */
+    public int corner(int cell) {
+        return cell >= 0 ? start(cell) + aisleWidth : -(start(-cell - 1) + aisleWidth);
+    }
+
+    /**
+     * Gets the smallest coordinate in a cell
+     *
+     * @param cell cell index
+     * @return the coordinate
+     */
+    public int cellMin(int cell) {
+        return cell >= 0 ? start(cell) : -(start(-cell) - 1);
+    }
+
+    /**
+     * Gets the largest coordinate in a cell
+     *
+     * @param cell cell index
+     * @return the coordinate
+     */
+    public int cellMax(int cell) {
+        return cell >= 0 ? start(cell + 1) - 1 : -Math.max(start(-cell - 1), 1); //0 属于网格 0
+    }
+
+    /**
+     * Gets the smallest coordinate of the land (including frames) in a cell
+     *
+     * @param cell cell index
+     * @return the coordinate
+     */
+    public int landMin(int cell) {
+        return cell >= 0 ? corner(cell) : corner(cell) - getLandWidth(cell) + 1;
+    }
+
+    /**
+     * Gets the largest coordinate of the land (including frames) in a cell
+     *
+     * @param cell cell index
+     * @return the coordinate
+     */
+    public int landMax(int cell) {
+        return cell >= 0 ? corner(cell) + getLandWidth(cell) - 1 : corner(cell);
+    }
+
+    /**
+     * Gets the pattern of the columns of a chunk on one axis.
+     * Chunks with the same patterns on both axes are generated with the same blocks.
+     * There are at most 2 * tileWidth / gcd(16, tileWidth) patterns, one set for each side.
+     *
+     * @param chunk chunk x or z
+     * @return the pattern
+     */
+    public int chunkPattern(int chunk) {
+        //区块不会跨越 0, 因此第一列在超级图块中的位置和方向决定了整个区块
+        return tileOffset(chunk << 4) << 1 | (chunk < 0 ? 1 : 0);
+    }
+
+    /**
+     * Gets the count of chunk patterns on one axis, see {@link #chunkPattern(int)}
+     *
+     * @return 2 * tileWidth / gcd(16, tileWidth)
+     */
+    public int getChunkPatterns() {
+        int gcd = tileWidth;
+        for (int b = 16; b != 0; ) { //辗转相除
+            int t = gcd % b;
+            gcd = b;
+            b = t;
+        }
+        return 2 * tileWidth / gcd;
+    }
+
+    /**
+     * Returns if two columns are in the ground of the same land
+     *
+     * @return TRUE if both columns are ground (not frame nor aisle) of the same cell
+     */
+    public boolean inSameGround(int x1, int z1, int x2, int z2) {
+        return type(x1, z1) == GROUND && type(x2, z2) == GROUND
+                && cell(x1) == cell(x2) && cell(z1) == cell(z2);
+    }
+
+    /**
+     * Returns if something moving from the first column to the second one crosses the border of a land,
+     * e.g. liquid flowing, pistons pushing or fire spreading.
+     * Moving inside the ground of one land, inside aisles or inside one column is not crossing.
+     *
+     * @return TRUE if crossing
+     */
+    public boolean crossesBorder(int fromX, int fromZ, int toX, int toZ) {
+        if (fromX == toX && fromZ == toZ) {
+            return false;
+        }
+        byte from = type(fromX, fromZ);
+        byte to = type(toX, toZ);
+        if (from == AISLE && to == AISLE) {
+            return false;
+        }
+        return from != GROUND || to != GROUND || cell(fromX) != cell(toX) || cell(fromZ) != cell(toZ);
+    }
+
+    /**
+     * Returns if the chunk contains any aisle column
+     *
+     * @param chunkX chunk x
+     * @param chunkZ chunk z
+     * @return TRUE if the chunk contains aisle
+     */
+    public boolean chunkHasAisle(int chunkX, int chunkZ) {
+        for (int i = 0; i < 16; i++) {
+            if (type((chunkX << 4) | i) == AISLE || type((chunkZ << 4) | i) == AISLE) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Packs two cell indexes into a key
+     *
+     * @param cellX cell x
+     * @param cellZ cell z
+     * @return the key
+     */
+    public static long cellKey(int cellX, int cellZ) {
+        return ((long) cellX << 32) | (cellZ & 0xffffffffL);
+    }
+
+    /**
+     * Gets the key of the cell containing the column
+     *
+     * @param x x
+     * @param z z
+     * @return the key
+     */
+    public long cellKeyAt(int x, int z) {
+        return cellKey(cell(x), cell(z));
+    }
+
+    /**
+     * Gets cell x of a key
+     *
+     * @param key key, see {@link #cellKey(int, int)}
+     * @return cell x
+     */
+    public static int cellX(long key) {
+        return (int) (key >> 32);
+    }
+
+    /**
+     * Gets cell z of a key
+     *
+     * @param key key, see {@link #cellKey(int, int)}
+     * @return cell z
+     */
+    public static int cellZ(long key) {
+        return (int) key;
+    }
+
+    /**
+     * 按螺旋顺序给网格编号, 从 (0, 0) 开始向外逐圈编号, 与 {@link #spiralCell(long)} 互逆 <br>
+     * Numbers the cells in a spiral starting from (0, 0) ring by ring. Inverse of {@link #spiralCell(long)}.
+     * <p>
+     * 第 k 圈 (k = max(|x|, |z|)) 的编号从 (2k-1)² 开始, 从 (-k, -k) 开始沿 x+, z+, x-, z- 方向各走 2k 格. <br>
+     * Ring k (k = max(|x|, |z|)) starts from (2k-1)², walking 2k cells towards x+, z+, x- and z- from (-k, -k).
+     *
+     * @param cellX cell x
+     * @param cellZ cell z
+     * @return the index, non-negative
+     */
+    public static long spiralIndex(int cellX, int cellZ) {
+        long k = Math.max(Math.abs((long) cellX), Math.abs((long) cellZ));
+        if (k == 0) {
+            return 0;
+        }
+        long base = (2 * k - 1) * (2 * k - 1);
+        if (cellZ == -k && cellX < k) {
+            return base + cellX + k;
+        }
+        if (cellX == k && cellZ < k) {
+            return base + 2 * k + cellZ + k;
+        }
+        if (cellZ == k && cellX > -k) {
+            return base + 4 * k + k - cellX;
+        }
+        return base + 6 * k + k - cellZ;
+    }
+
+    /**
+     * Gets the cell of a spiral index, see {@link #spiralIndex(int, int)}
+     *
+     * @param index the index, non-negative
+     * @return key of the cell, see {@link #cellKey(int, int)}
+     */
+    public static long spiralCell(long index) {
+        if (index == 0) {
+            return cellKey(0, 0);
+        }
+        long k = (long) ((Math.sqrt(index) + 1) / 2);
+        //修正浮点误差
+        while ((2 * k + 1) * (2 * k + 1) <= index) {
+            k++;
+        }
+        while (k > 0 && (2 * k - 1) * (2 * k - 1) > index) {
+            k--;
+        }
+
+        long offset = index - (2 * k - 1) * (2 * k - 1);
+        long side = offset / (2 * k);
+        long step = offset % (2 * k);
+        switch ((int) side) {
+            case 0:
+                return cellKey((int) (-k + step), (int) -k);
+            case 1:
+                return cellKey((int) k, (int) (-k + step));
+            case 2:
+                return cellKey((int) (k - step), (int) k);
+            default:
+                return cellKey((int) -k, (int) (k - step));
+        }
+    }
+}
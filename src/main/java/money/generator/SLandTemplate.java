@@ -0,0 +1,399 @@
+package money.generator;
+
+import cn.nukkit.block.Block;
+import cn.nukkit.level.ChunkManager;
+import cn.nukkit.level.format.FullChunk;
+import cn.nukkit.level.format.generic.BaseFullChunk;
+import money.utils.SLandUtils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 由生成器设置解析的地皮模板, 包括布局, 方块, 价格和限制. 不可变, 每个预设只解析和校验一次, 可在多个生成线程中共享 <br>
+ * Template of a land level parsed from the generator settings, including the layout, blocks, prices and limits.
+ * Immutable, parsed and validated once per preset, and shared by all generation threads.
+ * <p>
+ * 无效的设置项使用默认值, 并记录在 {@link #getProblems()} 中, 在世界加载时报告. <br>
+ * Invalid settings fall back to defaults and are recorded in {@link #getProblems()}, which are reported when the level is loaded.
+ *
+ * @author Him188 @ MoneySLand Project
+ */
+public final class SLandTemplate {
+    private static final Map<String, SLandTemplate> CACHE = new ConcurrentHashMap<>();
+
+    /**
+     * 每个预设最多缓存的区块数量, 用于限制内存. 不同区块的数量超过该值时只缓存最先生成的这些
+     */
+    private static volatile int maxChunkVariants = 2048;
+
+    /**
+     * Sets the max count of chunks cached per preset, which bounds the memory of the cache
+     *
+     * @param max the max count, 0 to disable the cache
+     */
+    public static void setMaxChunkVariants(int max) {
+        maxChunkVariants = Math.max(0, max);
+    }
+
+    /**
+     * Gets the template of a preset, parsing it if absent. This method is thread-safe.
+     *
+     * @param preset preset string, see {@link SLandUtils#toPreset(Map)}
+     * @return the template
+     */
+    public static SLandTemplate of(String preset) {
+        return CACHE.computeIfAbsent(preset, SLandTemplate::new);
+    }
+
+    /**
+     * 缺少的设置项使用默认值, 使旧的设置文件在新增设置项后仍然有效
+     */
+    static Map<String, Object> withDefaults(Map<String, Object> options) {
+        Map<String, Object> result = new HashMap<>(SLandGenerator.DEFAULT_SETTINGS);
+        if (options != null) {
+            result.putAll(options);
+        }
+        return result;
+    }
+
+    private final Map<String, Object> options;
+    private final List<String> problems = new ArrayList<>();
+
+    private final SLandLayout layout;
+    private final int groundHeight;
+
+    private final float price;
+    private final float sellingPrice;
+
+    private final int lastBlockId;
+    private final int lastBlockMeta;
+    private final int aisleBlockId;
+    private final int aisleBlockMeta;
+    private final int frameBlockId;
+    private final int frameBlockMeta;
+    private final int frameTopBlockId;
+    private final int frameTopBlockMeta;
+    private final int groundBlockId;
+    private final int groundBlockMeta;
+    private final int shopBlockId;
+    private final int shopBlockMeta;
+
+    private final int maxEntities;
+    private final int maxBlockEntities;
+
+    //布局以超级图块为周期重复, 大部分新区块与已生成的某个区块相同
+    private final Map<Long, BaseFullChunk> chunkVariants = new ConcurrentHashMap<>();
+    //不同区块的数量, 两个方向的区块模式数量之积
+    private final int chunkVariantCount;
+
+    private SLandTemplate(String preset) {
+        Map<String, Object> options = withDefaults(SLandUtils.fromPreset(preset));
+        options.put("preset", preset);
+        this.options = Collections.unmodifiableMap(options);
+
+        int totalWidth = getInt("totalWidth", 1, 20);
+        int aisleWidth = getInt("aisleBlockWidth", 0, SLandGenerator.DEFAULT_AISLE_WIDTH);
+        int frameWidth = getInt("frameBlockWidth", 1, SLandGenerator.DEFAULT_FRAME_WIDTH);
+        this.layout = new SLandLayout(getWidths(totalWidth), aisleWidth, frameWidth);
+        if (layout.isBroken()) {
+            problems.add("地皮总宽度设置有误, 当前边框宽度, 过道宽度设置下总宽度至少需要 " + (2 * aisleWidth + 2 * frameWidth));
+        }
+        this.chunkVariantCount = layout.getChunkPatterns() * layout.getChunkPatterns();
+
+        this.groundHeight = Math.min(getInt("groundHeight", 1, 48), 253); //商店方块在地面上方 2 格
+        this.price = getFloat("price", 100);
+        this.sellingPrice = getFloat("sellingPrice", 50);
+
+        Block block = getBlock("lastBlock", SLandGenerator.DEFAULT_LAST_BLOCK);
+        this.lastBlockId = block.getId();
+        this.lastBlockMeta = block.getDamage();
+        block = getBlock("aisleBlock", SLandGenerator.DEFAULT_AISLE_BLOCK);
+        this.aisleBlockId = block.getId();
+        this.aisleBlockMeta = block.getDamage();
+        block = getBlock("frameBlock", SLandGenerator.DEFAULT_FRAME_BLOCK);
+        this.frameBlockId = block.getId();
+        this.frameBlockMeta = block.getDamage();
+        block = getBlock("frameTopBlock", SLandGenerator.DEFAULT_FRAME_TOP_BLOCK);
+        this.frameTopBlockId = block.getId();
+        this.frameTopBlockMeta = block.getDamage();
+        block = getBlock("groundBlock", SLandGenerator.DEFAULT_GROUND_BLOCK);
+        this.groundBlockId = block.getId();
+        this.groundBlockMeta = block.getDamage();
+        block = getBlock("shopBlock", SLandGenerator.DEFAULT_SHOP_BLOCK);
+        this.shopBlockId = block.getId();
+        this.shopBlockMeta = block.getDamage();
+
+        this.maxEntities = getInt("maxEntities", 0, 0);
+        this.maxBlockEntities = getInt("maxBlockEntities", 0, 0);
+    }
+
+    private int getInt(String name, int min, int defaultValue) {
+        Object value = options.get(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            int result = Integer.parseInt(value.toString().trim());
+            if (result >= min) {
+                return result;
+            }
+        } catch (NumberFormatException ignored) {
+        }
+        problems.add(name + " 设置有误 (" + value + "), 应为不小于 " + min + " 的整数, 已使用默认值 " + defaultValue);
+        return defaultValue;
+    }
+
+    /**
+     * landWidths 为以逗号分隔的各网格总宽度, 未设置时所有地皮使用 totalWidth
+     */
+    private int[] getWidths(int totalWidth) {
+        Object value = options.get("landWidths");
+        if (value == null || value.toString().trim().isEmpty()) {
+            return new int[]{totalWidth};
+        }
+        try {
+            String[] vars = value.toString().trim().split(",");
+            int[] widths = new int[vars.length];
+            long sum = 0;
+            for (int i = 0; i < vars.length; i++) {
+                widths[i] = Integer.parseInt(vars[i].trim());
+                if (widths[i] < 1) {
+                    throw new NumberFormatException();
+                }
+                sum += widths[i];
+            }
+            if (sum <= SLandLayout.MAX_TILE_WIDTH) {
+                return widths;
+            }
+        } catch (NumberFormatException ignored) {
+        }
+        problems.add("landWidths 设置有误 (" + value + "), 应为以逗号分隔的正整数, 且总和不大于 " + SLandLayout.MAX_TILE_WIDTH + ", 已使用 totalWidth " + totalWidth);
+        return new int[]{totalWidth};
+    }
+
+    private float getFloat(String name, float defaultValue) {
+        Object value = options.get(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            float result = Float.parseFloat(value.toString().trim());
+            if (result >= 0) {
+                return result;
+            }
+        } catch (NumberFormatException ignored) {
+        }
+        problems.add(name + " 设置有误 (" + value + "), 应为不小于 0 的数, 已使用默认值 " + defaultValue);
+        return defaultValue;
+    }
+
+    private Block getBlock(String name, Block defaultBlock) {
+        Object value = options.get(name);
+        if (value == null) {
+            return defaultBlock;
+        }
+        try {
+            String[] vars = value.toString().trim().split(":");
+            Block block = Block.get(Integer.parseInt(vars[0]), vars.length == 2 ? Integer.parseInt(vars[1]) : 0);
+            if (block != null && vars.length <= 2) {
+                return block;
+            }
+        } catch (Exception ignored) {
+        }
+        problems.add(name + " 设置有误 (" + value + "), 应为 ID 或 ID:META, 已使用默认值 " + defaultBlock.getId() + ":" + defaultBlock.getDamage());
+        return defaultBlock;
+    }
+
+    /**
+     * Gets the settings with defaults filled, including the preset string
+     *
+     * @return unmodifiable settings
+     */
+    public Map<String, Object> getOptions() {
+        return options;
+    }
+
+    /**
+     * Gets the problems found while parsing the settings. Invalid settings fall back to defaults
+     *
+     * @return descriptions of problems, empty if all settings are valid
+     */
+    public List<String> getProblems() {
+        return Collections.unmodifiableList(problems);
+    }
+
+    public SLandLayout getLayout() {
+        return layout;
+    }
+
+    public int getGroundHeight() {
+        return groundHeight;
+    }
+
+    public boolean isBroken() {
+        return layout.isBroken();
+    }
+
+    /**
+     * Gets the buying price of each square
+     *
+     * @return the price
+     */
+    public float getPrice() {
+        return price;
+    }
+
+    /**
+     * Gets the selling price of each square
+     *
+     * @return the price
+     */
+    public float getSellingPrice() {
+        return sellingPrice;
+    }
+
+    /**
+     * Gets the entity limit of each land
+     *
+     * @return the limit, 0 for unlimited
+     */
+    public int getMaxEntities() {
+        return maxEntities;
+    }
+
+    /**
+     * Gets the block entity limit of each land
+     *
+     * @return the limit, 0 for unlimited
+     */
+    public int getMaxBlockEntities() {
+        return maxBlockEntities;
+    }
+
+    /**
+     * Generates one column
+     *
+     * @param chunk chunk
+     * @param x     x in chunk, in range 0-15
+     * @param z     z in chunk, in range 0-15
+     * @param realX x in level
+     * @param realZ z in level
+     */
+    public void generateColumn(FullChunk chunk, int x, int z, int realX, int realZ) {
+        if (layout.isBroken()) {
+            for (int y = 0; y < groundHeight; y++) {
+                chunk.setBlock(x, y, z, Block.BEDROCK, 0);
+            }
+            return;
+        }
+
+        switch (layout.type(realX, realZ)) {
+            case SLandLayout.AISLE:
+                fill(chunk, x, 1, groundHeight, z, aisleBlockId, aisleBlockMeta);
+                break;
+            case SLandLayout.FRAME:
+                fill(chunk, x, 0, groundHeight, z, frameBlockId, frameBlockMeta);
+                fill(chunk, x, groundHeight + 1, groundHeight + 1, z, frameTopBlockId, frameTopBlockMeta);
+                break;
+            default:
+                fill(chunk, x, 1, groundHeight, z, groundBlockId, groundBlockMeta);
+                break;
+        }
+        fill(chunk, x, 0, 0, z, lastBlockId, lastBlockMeta);
+    }
+
+    private static void fill(FullChunk chunk, int x, int minY, int maxY, int z, int id, int meta) {
+        for (int y = minY; y <= Math.min(maxY, 255); y++) {
+            chunk.setBlockId(x, y, z, id);
+            chunk.setBlockData(x, y, z, meta);
+        }
+    }
+
+    /**
+     * Generates a chunk. A copy of the chunk generated earlier with the same pattern is used if possible,
+     * otherwise the chunk is generated column by column and kept for later chunks.
+     * This method is thread-safe.
+     *
+     * @param level  chunk manager of the generator
+     * @param chunkX chunk x
+     * @param chunkZ chunk z
+     */
+    public void generateChunk(ChunkManager level, int chunkX, int chunkZ) {
+        BaseFullChunk chunk = level.getChunk(chunkX, chunkZ);
+        long key = SLandLayout.cellKey(layout.chunkPattern(chunkX), layout.chunkPattern(chunkZ));
+
+        BaseFullChunk variant = chunkVariants.get(key);
+        if (variant != null && variant.getClass() == chunk.getClass()) {
+            BaseFullChunk copy = variant.clone();
+            copy.setPosition(chunkX, chunkZ);
+            copy.setProvider(chunk.getProvider());
+            level.setChunk(chunkX, chunkZ, copy);
+            return;
+        }
+
+        int realChunkX = chunkX << 4;
+        int realChunkZ = chunkZ << 4;
+        for (int x = 0; x < 16; x++) { //16 不能用 totalWidth 替换, 因为 chunk 的大小只有 16
+            for (int z = 0; z < 16; z++) {
+                generateColumn(chunk, x, z, realChunkX + x, realChunkZ + z);
+            }
+        }
+
+        if (variant == null && chunkVariants.size() < Math.min(chunkVariantCount, maxChunkVariants)) {
+            chunkVariants.putIfAbsent(key, chunk.clone());
+        }
+    }
+
+    /**
+     * Gets the count of distinct chunks of the layout, the cache is full when all of them are kept
+     *
+     * @return the count
+     */
+    public int getChunkVariantCount() {
+        return chunkVariantCount;
+    }
+
+    /**
+     * Gets the count of chunks kept for generating later chunks
+     *
+     * @return the count
+     */
+    public int getChunkVariants() {
+        return chunkVariants.size();
+    }
+
+    /**
+     * Returns if the shop block of a land is placed in the column, which is at the corner where both frames meet
+     *
+     * @param realX x in level
+     * @param realZ z in level
+     * @return TRUE if the column has a shop block
+     */
+    public boolean isShopColumn(int realX, int realZ) {
+        if (layout.isBroken()) {
+            return false;
+        }
+        int offsetX = layout.offset(realX);
+        int offsetZ = layout.offset(realZ);
+        int min = layout.getAisleWidth();
+        int max = min + layout.getFrameWidth();
+        return offsetX >= min && offsetX < max && offsetZ >= min && offsetZ < max;
+    }
+
+    /**
+     * Places the shop block in one column
+     *
+     * @param chunk chunk
+     * @param x     x in chunk, in range 0-15
+     * @param z     z in chunk, in range 0-15
+     */
+    public void placeShopBlock(FullChunk chunk, int x, int z) {
+        chunk.setBlock(x, groundHeight + 2, z, shopBlockId);
+        chunk.setBlockData(x, groundHeight + 2, z, shopBlockMeta);
+    }
+}
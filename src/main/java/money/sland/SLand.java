@@ -13,6 +13,7 @@ import cn.nukkit.utils.ConfigSection;
 import money.MoneySLand;
 import money.event.MoneySLandInviteeChangeEvent;
 import money.generator.SLandGenerator;
+import money.generator.SLandTemplate;
 import money.utils.ActionType;
 import money.utils.Range;
 import money.utils.SLandUtils;
@@ -40,7 +41,7 @@ public final class SLand { // TODO: 2017/7/2 javadoc
     }
 
     public static SLand newLand(ConfigSection data) throws IllegalArgumentException, NullPointerException {
-        return new SLand(
+        SLand land = new SLand(
                 data.getInt("id", -1),
                 Range.fromString(data.getString("x", null)),
                 Range.fromString(data.getString("z", null)),
@@ -51,6 +52,17 @@ public final class SLand { // TODO: 2017/7/2 javadoc
                 data.getString("level", null),
                 SLandUtils.parseVector3(data.getString("shopBlock", null))
         );
+        if (data.containsKey("denied")) {
+            for (String name : data.getStringList("denied")) {
+                land.denied.add(name.toLowerCase());
+            }
+        }
+        land.privateLand = data.getBoolean("private", false);
+        land.maxEntities = data.getInt("maxEntities", -1);
+        land.maxBlockEntities = data.getInt("maxBlockEntities", -1);
+        land.modified = data.getBoolean("modified", land.isOwned()); //旧数据中已被购买的地皮视为被修改过
+        land.dirtyFlags = 0; //已保存过的地皮
+        return land;
     }
 
     public static SLand newInitialLand(int id, Range x, Range z, String level, Vector3 shopBLock) {
@@ -74,10 +86,62 @@ public final class SLand { // TODO: 2017/7/2 javadoc
 
     private final Vector3 shopBlock;
 
+    /**
+     * 被禁止进入的玩家, 小写
+     */
+    private final LinkedHashSet<String> denied = new LinkedHashSet<>();
+    private boolean privateLand;
+
+    //玩家名字哈希 (SLandUtils.hashName), 已排序, 为 null 时需要重新计算
+    private long[] deniedHashes;
+    private long[] memberHashes;
+
+    //实体和方块实体数量上限, -1 表示使用生成器设置
+    private int maxEntities = -1;
+    private int maxBlockEntities = -1;
+
+    //地皮中的方块是否被修改过, 未修改过的地皮与生成器生成的相同
+    private boolean modified;
+
 
     private float sellingPrice = -1;
     private float buyingPrice = -1;
 
+    /**
+     * 主人被修改
+     */
+    public static final int DIRTY_OWNER = 1;
+    /**
+     * 共享者被修改
+     */
+    public static final int DIRTY_INVITEES = 1 << 1;
+    /**
+     * 禁止进入的玩家被修改
+     */
+    public static final int DIRTY_DENIED = 1 << 2;
+    /**
+     * 私有状态被修改
+     */
+    public static final int DIRTY_PRIVATE = 1 << 3;
+    /**
+     * 实体或方块实体数量上限被修改
+     */
+    public static final int DIRTY_LIMITS = 1 << 4;
+    /**
+     * 修改状态被修改
+     */
+    public static final int DIRTY_MODIFIED = 1 << 5;
+    /**
+     * 地皮从未被保存过, 需要完整写入
+     */
+    public static final int DIRTY_ALL = 0xffff;
+
+    //列表修改记录超过该数量时直接重写整个列表
+    private static final int MAX_LIST_CHANGES = 16;
+
+    private int dirtyFlags = DIRTY_ALL;
+    private final List<SLandChange> changes = new ArrayList<>();
+
     private SLand(int id, Range x, Range z, String owner, Collection<String> invitees, long time, boolean free, String level, Vector3 shopBlock) {
         Objects.requireNonNull(x);
         Objects.requireNonNull(z);
@@ -114,12 +178,21 @@ public final class SLand { // TODO: 2017/7/2 javadoc
     }
 
     public ConfigSection save() {
+        synchronized (changes) {
+            dirtyFlags = 0;
+            changes.clear();
+        }
         return new ConfigSection() {
             {
                 put("id", id);
                 put("level", level);
-                put("owner", owner);
+                put("owner", owner == null ? "" : owner);
                 put("invitees", new ArrayList<>(invitees));
+                put("denied", new ArrayList<>(denied));
+                put("private", privateLand);
+                put("maxEntities", maxEntities);
+                put("maxBlockEntities", maxBlockEntities);
+                put("modified", modified);
                 put("time", time);
                 put("x", x.toString());
                 put("z", z.toString());
@@ -128,6 +201,131 @@ public final class SLand { // TODO: 2017/7/2 javadoc
         };
     }
 
+    /**
+     * Writes only the changed fields into {@code section}, which is the section this land was saved into last time.
+     * If the land has never been saved or {@code section} is null, a whole new section will be returned.
+     *
+     * @param section the section saved last time, nullable
+     * @return the section to be stored
+     * @see #save()
+     */
+    @SuppressWarnings("unchecked")
+    public ConfigSection saveChanges(ConfigSection section) {
+        synchronized (changes) {
+            if (section == null || dirtyFlags == DIRTY_ALL) {
+                return save();
+            }
+
+            List<Object> inviteeList = listToPatch(section, "invitees", DIRTY_INVITEES, invitees, SLandChange.Type.INVITEE_ADD, SLandChange.Type.INVITEE_REMOVE);
+            List<Object> deniedList = listToPatch(section, "denied", DIRTY_DENIED, denied, SLandChange.Type.DENIED_ADD, SLandChange.Type.DENIED_REMOVE);
+
+            for (SLandChange change : changes) {
+                switch (change.getType()) {
+                    case OWNER:
+                        section.put("owner", change.getValue());
+                        break;
+                    case INVITEE_ADD:
+                        addIfAbsent(inviteeList, change.getValue());
+                        break;
+                    case INVITEE_REMOVE:
+                        inviteeList.remove(change.getValue());
+                        break;
+                    case DENIED_ADD:
+                        addIfAbsent(deniedList, change.getValue());
+                        break;
+                    case DENIED_REMOVE:
+                        deniedList.remove(change.getValue());
+                        break;
+                    case PRIVATE:
+                        section.put("private", Boolean.parseBoolean(change.getValue()));
+                        break;
+                    case MAX_ENTITIES:
+                        section.put("maxEntities", Integer.parseInt(change.getValue()));
+                        break;
+                    case MAX_BLOCK_ENTITIES:
+                        section.put("maxBlockEntities", Integer.parseInt(change.getValue()));
+                        break;
+                    case MODIFIED:
+                        section.put("modified", Boolean.parseBoolean(change.getValue()));
+                        break;
+                }
+            }
+
+            dirtyFlags = 0;
+            changes.clear();
+            return section;
+        }
+    }
+
+    /**
+     * Gets the list in {@code section} to be patched by changes.
+     * The list is rewritten as a whole if it is missing or there are too many changes, and these changes are dropped.
+     */
+    @SuppressWarnings("unchecked")
+    private List<Object> listToPatch(ConfigSection section, String key, int flag, Collection<String> values, SLandChange.Type add, SLandChange.Type remove) {
+        Object list = section.get(key);
+        if ((dirtyFlags & flag) == 0) {
+            return list instanceof List ? (List<Object>) list : new ArrayList<>();
+        }
+
+        if (!(list instanceof List) || changes.stream().filter(change -> change.getType() == add || change.getType() == remove).count() > MAX_LIST_CHANGES) {
+            list = new ArrayList<>(values);
+            section.put(key, list);
+            changes.removeIf(change -> change.getType() == add || change.getType() == remove);
+        }
+        return (List<Object>) list;
+    }
+
+    private static void addIfAbsent(List<Object> list, String value) {
+        if (!list.contains(value)) {
+            list.add(value);
+        }
+    }
+
+    /**
+     * Gets the dirty flags since last saving
+     *
+     * @return the dirty flags
+     * @see #DIRTY_OWNER
+     * @see #DIRTY_INVITEES
+     * @see #DIRTY_DENIED
+     * @see #DIRTY_PRIVATE
+     * @see #DIRTY_LIMITS
+     * @see #DIRTY_MODIFIED
+     * @see #DIRTY_ALL
+     */
+    public int getDirtyFlags() {
+        return dirtyFlags;
+    }
+
+    /**
+     * Gets the changes since last saving
+     *
+     * @return the changes since last saving
+     */
+    public List<SLandChange> getChanges() {
+        synchronized (changes) {
+            return new ArrayList<>(changes);
+        }
+    }
+
+    private void markDirty(int flag, SLandChange change) {
+        synchronized (changes) {
+            if (dirtyFlags != DIRTY_ALL) {
+                if (!change.getType().isListChange()) { //只需要保留最后一次修改
+                    changes.removeIf(c -> c.getType() == change.getType());
+                }
+                changes.add(change);
+                dirtyFlags |= flag;
+            }
+        }
+        MoneySLand plugin = MoneySLand.getInstance();
+        if (plugin.addLand(this) != this) { //未保存的地皮第一次被修改时保存
+            //网格保证每块地皮只有一个对象, 不应发生. 不替换已保存的地皮, 否则已保存的修改会丢失
+            plugin.getLogger().warning("Land #" + id + " is already stored as another object, the change is not saved: " + change);
+        }
+    }
+
     /**
      * Gets the level folder name
      *
@@ -195,6 +393,15 @@ public final class SLand { // TODO: 2017/7/2 javadoc
         return z;
     }
 
+    /**
+     * Returns if the block at the coordinates is the shop block of this land
+     *
+     * @return TRUE if it is the shop block
+     */
+    public boolean isShopBlock(int x, int y, int z) {
+        return shopBlock.getFloorX() == x && shopBlock.getFloorY() == y && shopBlock.getFloorZ() == z;
+    }
+
     public boolean isFrame(Vector3 position) {
         return ((this.getX().min == position.getFloorX() || this.getX().max == position.getFloorX()) && this.getZ().inRangeIncludingFrame(position.getFloorZ(), false))
                 || ((this.getZ().min == position.getFloorZ() || this.getZ().max == position.getFloorZ()) && this.getX().inRangeIncludingFrame(position.getFloorX(), false));
@@ -216,8 +423,13 @@ public final class SLand { // TODO: 2017/7/2 javadoc
      */
     public void setOwner(String owner) {
         if (!Objects.equals(this.owner, owner)) {
+            String oldOwner = this.owner;
             this.owner = owner == null || owner.isEmpty() ? null : owner;
-            MoneySLand.getInstance().getModifiedLandPool().add(this);
+            markDirty(DIRTY_OWNER, new SLandChange(SLandChange.Type.OWNER, this.owner));
+            memberHashes = null;
+            MoneySLand.getInstance().getProtectionCache().invalidate(this);
+            MoneySLand.getInstance().getTracker().recheck(this);
+            MoneySLand.getInstance().ownerChanged(this, oldOwner);
         }
     }
 
@@ -258,7 +470,9 @@ public final class SLand { // TODO: 2017/7/2 javadoc
             return false;
         }
         this.invitees.add(player);
-        MoneySLand.getInstance().getModifiedLandPool().add(this);
+        markDirty(DIRTY_INVITEES, new SLandChange(SLandChange.Type.INVITEE_ADD, player));
+        memberHashes = null;
+        MoneySLand.getInstance().getProtectionCache().invalidate(this);
         return true;
     }
 
@@ -279,7 +493,10 @@ public final class SLand { // TODO: 2017/7/2 javadoc
             return false;
         }
         this.invitees.remove(player);
-        MoneySLand.getInstance().getModifiedLandPool().add(this);
+        markDirty(DIRTY_INVITEES, new SLandChange(SLandChange.Type.INVITEE_REMOVE, player));
+        memberHashes = null;
+        MoneySLand.getInstance().getProtectionCache().invalidate(this);
+        MoneySLand.getInstance().getTracker().recheck(this);
         return true;
     }
 
@@ -293,6 +510,171 @@ public final class SLand { // TODO: 2017/7/2 javadoc
         return this.invitees.contains(player);
     }
 
+    /**
+     * Gets the names of denied players in lower case
+     *
+     * @return the names of denied players
+     */
+    public Set<String> getDenied() {
+        return Collections.unmodifiableSet(denied);
+    }
+
+    /**
+     * Denies a player from entering this land
+     *
+     * @param player player's name
+     * @return TRUE on success, FALSE if the player is already denied
+     */
+    public boolean addDenied(String player) {
+        String name = player.toLowerCase();
+        if (!this.denied.add(name)) {
+            return false;
+        }
+        markDirty(DIRTY_DENIED, new SLandChange(SLandChange.Type.DENIED_ADD, name));
+        deniedHashes = null;
+        MoneySLand.getInstance().getTracker().recheck(this);
+        return true;
+    }
+
+    /**
+     * Allows a denied player to enter this land again
+     *
+     * @param player player's name
+     * @return TRUE on success, FALSE if the player is not denied
+     */
+    public boolean removeDenied(String player) {
+        String name = player.toLowerCase();
+        if (!this.denied.remove(name)) {
+            return false;
+        }
+        markDirty(DIRTY_DENIED, new SLandChange(SLandChange.Type.DENIED_REMOVE, name));
+        deniedHashes = null;
+        return true;
+    }
+
+    public boolean isDenied(String player) {
+        return this.denied.contains(player.toLowerCase());
+    }
+
+    /**
+     * Returns if this land is private. Only the owner and invitees can enter a private land
+     *
+     * @return TRUE if private
+     */
+    public boolean isPrivate() {
+        return privateLand;
+    }
+
+    public void setPrivate(boolean privateLand) {
+        if (this.privateLand != privateLand) {
+            this.privateLand = privateLand;
+            markDirty(DIRTY_PRIVATE, new SLandChange(SLandChange.Type.PRIVATE, String.valueOf(privateLand)));
+            if (privateLand) {
+                MoneySLand.getInstance().getTracker().recheck(this);
+            }
+        }
+    }
+
+    /**
+     * Gets the entity limit of this land
+     *
+     * @return the limit, 0 for unlimited, -1 for using the generator setting
+     */
+    public int getMaxEntities() {
+        return maxEntities;
+    }
+
+    /**
+     * Sets the entity limit of this land
+     *
+     * @param maxEntities the limit, 0 for unlimited, -1 for using the generator setting
+     */
+    public void setMaxEntities(int maxEntities) {
+        if (this.maxEntities != maxEntities) {
+            this.maxEntities = maxEntities;
+            markDirty(DIRTY_LIMITS, new SLandChange(SLandChange.Type.MAX_ENTITIES, String.valueOf(maxEntities)));
+        }
+    }
+
+    /**
+     * Gets the block entity limit of this land
+     *
+     * @return the limit, 0 for unlimited, -1 for using the generator setting
+     */
+    public int getMaxBlockEntities() {
+        return maxBlockEntities;
+    }
+
+    /**
+     * Sets the block entity limit of this land
+     *
+     * @param maxBlockEntities the limit, 0 for unlimited, -1 for using the generator setting
+     */
+    public void setMaxBlockEntities(int maxBlockEntities) {
+        if (this.maxBlockEntities != maxBlockEntities) {
+            this.maxBlockEntities = maxBlockEntities;
+            markDirty(DIRTY_LIMITS, new SLandChange(SLandChange.Type.MAX_BLOCK_ENTITIES, String.valueOf(maxBlockEntities)));
+        }
+    }
+
+    /**
+     * Returns if blocks of this land have been placed or broken since it was generated.
+     * An unmodified land is identical to the output of {@link SLandGenerator}
+     *
+     * @return TRUE if modified
+     */
+    public boolean isModified() {
+        return modified;
+    }
+
+    public void setModified(boolean modified) {
+        if (this.modified != modified) {
+            this.modified = modified;
+            markDirty(DIRTY_MODIFIED, new SLandChange(SLandChange.Type.MODIFIED, String.valueOf(modified)));
+        }
+    }
+
+    /**
+     * Returns if the player can enter this land. The owner and invitees can always enter
+     *
+     * @param nameHash hash of the player's name, see {@link SLandUtils#hashName(String)}
+     * @return TRUE if the player can enter
+     */
+    public boolean canEnter(long nameHash) {
+        if (!privateLand && denied.isEmpty()) {
+            return true;
+        }
+
+        if (memberHashes == null) {
+            List<String> members = new ArrayList<>(invitees);
+            if (isOwned()) {
+                members.add(owner);
+            }
+            memberHashes = hashNames(members);
+        }
+        if (Arrays.binarySearch(memberHashes, nameHash) >= 0) {
+            return true;
+        }
+        if (privateLand) {
+            return false;
+        }
+
+        if (deniedHashes == null) {
+            deniedHashes = hashNames(denied);
+        }
+        return Arrays.binarySearch(deniedHashes, nameHash) < 0;
+    }
+
+    private static long[] hashNames(Collection<String> names) {
+        long[] hashes = new long[names.size()];
+        int i = 0;
+        for (String name : names) {
+            hashes[i++] = SLandUtils.hashName(name);
+        }
+        Arrays.sort(hashes);
+        return hashes;
+    }
+
     /**
      * Returns if the {@code player} can modify this land
      *
@@ -329,27 +711,14 @@ public final class SLand { // TODO: 2017/7/2 javadoc
     public void regenerate(boolean putShopBlock) {
         synchronized (regeneratorLock) {
 
-            final SLandGenerator generator = (SLandGenerator) this.getLevelInstance().getGenerator();
-            int groundHeight = Integer.parseInt(generator.getSettings().getOrDefault("groundHeight", SLandGenerator.DEFAULT_SETTINGS.get("groundHeight")).toString());
+            final SLandTemplate template = this.getGenerator().getTemplate();
             this.getX().forEach(x -> this.getZ().forEach(z -> {
-                int chunkX = x >> 4;
-                int chunkZ = z >> 4;
-                FullChunk chunk = this.getLevelInstance().getChunk(chunkX, chunkZ);
-                for (int y = 0; y < groundHeight; y++) {
-                    generator.generate(chunk, chunkX, chunkZ, chunkX * 16, chunkZ * 16, x - chunkX * 16, y, z - chunkZ * 16);
+                FullChunk chunk = this.getLevelInstance().getChunk(x >> 4, z >> 4);
+                template.generateColumn(chunk, x & 15, z & 15, x, z);
+                if (putShopBlock && template.isShopColumn(x, z)) {
+                    template.placeShopBlock(chunk, x & 15, z & 15);
                 }
             }));
-
-            if (putShopBlock) {
-                this.getX().forEach(x -> this.getZ().forEach(z -> {
-                    int chunkX = x >> 4;
-                    int chunkZ = z >> 4;
-                    FullChunk chunk = this.getLevelInstance().getChunk(chunkX, chunkZ);
-                    for (int y = 0; y < groundHeight; y++) {
-                        generator.populate(chunk, chunkX, chunkZ, chunkX * 16, chunkZ * 16, x - chunkX * 16, y, z - chunkZ * 16, false);
-                    }
-                }));
-            }
         }
     }
 
@@ -359,16 +728,14 @@ public final class SLand { // TODO: 2017/7/2 javadoc
 
     public float getBuyingPrice() {
         if (this.buyingPrice == -1) { //SLand被加载时不一定世界也被加载, Generator 不一定能获取到.
-            float price = Float.parseFloat(this.getGenerator().getSettings().getOrDefault("price", SLandGenerator.DEFAULT_SETTINGS.get("price")).toString());
-            return this.buyingPrice = this.getSquare() * price;
+            return this.buyingPrice = this.getSquare() * this.getGenerator().getTemplate().getPrice();
         }
         return this.buyingPrice;
     }
 
     public float getSellingPrice() {
         if (this.sellingPrice == -1) {
-            float price = Float.parseFloat(this.getGenerator().getSettings().getOrDefault("sellingPrice", SLandGenerator.DEFAULT_SETTINGS.get("sellingPrice")).toString());
-            return this.sellingPrice = this.getSquare() * price;
+            return this.sellingPrice = this.getSquare() * this.getGenerator().getTemplate().getSellingPrice();
         }
         return this.sellingPrice;
     }
@@ -0,0 +1,118 @@
+package money.sland;
+
+import java.util.Objects;
+
+/**
+ * 地皮的一次修改记录, 保存时只写入这些修改 <br>
+ * A single change of a {@link SLand}, only these changes are written when saving.
+ *
+ * @author Him188 @ MoneySLand Project
+ * @see SLand#getChanges()
+ * @see SLand#saveChanges(cn.nukkit.utils.ConfigSection)
+ */
+public final class SLandChange {
+    public enum Type {
+        /**
+         * 主人被修改, {@link #getValue()} 为新主人 <br>
+         * Owner changed, {@link #getValue()} is the new owner
+         */
+        OWNER,
+
+        /**
+         * 添加了一名共享者 <br>
+         * An invitee is added
+         */
+        INVITEE_ADD,
+
+        /**
+         * 移除了一名共享者 <br>
+         * An invitee is removed
+         */
+        INVITEE_REMOVE,
+
+        /**
+         * 禁止了一名玩家进入 <br>
+         * A player is denied
+         */
+        DENIED_ADD,
+
+        /**
+         * 取消了对一名玩家的禁止 <br>
+         * A player is no longer denied
+         */
+        DENIED_REMOVE,
+
+        /**
+         * 私有状态被修改, {@link #getValue()} 为 "true" 或 "false" <br>
+         * Private flag changed, {@link #getValue()} is "true" or "false"
+         */
+        PRIVATE,
+
+        /**
+         * 实体数量上限被修改, {@link #getValue()} 为新的上限 <br>
+         * Entity limit changed, {@link #getValue()} is the new limit
+         */
+        MAX_ENTITIES,
+
+        /**
+         * 方块实体数量上限被修改, {@link #getValue()} 为新的上限 <br>
+         * Block entity limit changed, {@link #getValue()} is the new limit
+         */
+        MAX_BLOCK_ENTITIES,
+
+        /**
+         * 地皮中的方块被修改过, {@link #getValue()} 为 "true" 或 "false" <br>
+         * Blocks of the land have been modified, {@link #getValue()} is "true" or "false"
+         */
+        MODIFIED;
+
+        /**
+         * Returns if the change adds or removes an element of a list. Other changes replace a value, only the last one is kept
+         *
+         * @return TRUE on list changes
+         */
+        public boolean isListChange() {
+            return this == INVITEE_ADD || this == INVITEE_REMOVE || this == DENIED_ADD || this == DENIED_REMOVE;
+        }
+    }
+
+    private final Type type;
+    private final String value;
+
+    SLandChange(Type type, String value) {
+        this.type = Objects.requireNonNull(type);
+        this.value = value == null ? "" : value;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public String getValue() {
+        return value;
+    }
+
+    @Override
+    public String toString() {
+        switch (type) {
+            case INVITEE_ADD:
+                return "invitee +" + value;
+            case INVITEE_REMOVE:
+                return "invitee -" + value;
+            case DENIED_ADD:
+                return "denied +" + value;
+            case DENIED_REMOVE:
+                return "denied -" + value;
+            case PRIVATE:
+                return "private -> " + value;
+            case MAX_ENTITIES:
+                return "maxEntities -> " + value;
+            case MAX_BLOCK_ENTITIES:
+                return "maxBlockEntities -> " + value;
+            case MODIFIED:
+                return "modified -> " + value;
+            default:
+                return "owner -> " + value;
+        }
+    }
+}
@@ -0,0 +1,257 @@
+package money.sland;
+
+import cn.nukkit.block.BlockID;
+import cn.nukkit.blockentity.BlockEntity;
+import cn.nukkit.level.Level;
+import cn.nukkit.level.format.FullChunk;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 每块地皮的实体与方块实体计数. 计数在实体生成/消失, 方块放置/破坏, 区块加载/卸载时增量更新, 不会扫描区块方块 <br>
+ * Per-land counters of entities and block entities. Counters are updated incrementally on entity spawn/despawn,
+ * block place/break and chunk load/unload. Chunk blocks are never scanned.
+ * <p>
+ * 被爆炸, 活塞, 清空地皮或其他插件移除的方块实体不会被减去, 因此达到上限时需要用 {@link #recountBlockEntities(Level, SLand, SLandGrid)} 重新统计 <br>
+ * Block entities removed by explosions, pistons, clearing the land or other plugins are not subtracted,
+ * so the count should be rebuilt with {@link #recountBlockEntities(Level, SLand, SLandGrid)} when it reaches the limit.
+ * <p>
+ * 实体计入其生成时所在的地皮 <br>
+ * An entity is counted in the land where it spawned.
+ * <p>
+ * 只能在主线程中使用 <br>
+ * Main thread only.
+ *
+ * @author Him188 @ MoneySLand Project
+ */
+public final class SLandCounter {
+    private static final boolean[] BLOCK_ENTITY_BLOCKS = new boolean[256];
+
+    static {
+        for (int id : new int[]{
+                BlockID.CHEST, BlockID.TRAPPED_CHEST, BlockID.ENDER_CHEST,
+                BlockID.FURNACE, BlockID.BURNING_FURNACE,
+                BlockID.HOPPER_BLOCK, BlockID.DISPENSER, BlockID.DROPPER,
+                BlockID.ITEM_FRAME_BLOCK, BlockID.SIGN_POST, BlockID.WALL_SIGN,
+                BlockID.BREWING_STAND_BLOCK, BlockID.ENCHANTING_TABLE, BlockID.CAULDRON_BLOCK,
+                BlockID.FLOWER_POT_BLOCK, BlockID.SKULL_BLOCK, BlockID.BED_BLOCK,
+                BlockID.BEACON, BlockID.JUKEBOX, BlockID.MONSTER_SPAWNER,
+                BlockID.DAYLIGHT_DETECTOR, BlockID.DAYLIGHT_DETECTOR_INVERTED,
+        }) {
+            BLOCK_ENTITY_BLOCKS[id] = true;
+        }
+    }
+
+    /**
+     * Returns if placing the block creates a block entity
+     *
+     * @param blockId block id
+     * @return TRUE if the block has a block entity
+     */
+    public static boolean hasBlockEntity(int blockId) {
+        return blockId >= 0 && blockId < BLOCK_ENTITY_BLOCKS.length && BLOCK_ENTITY_BLOCKS[blockId];
+    }
+
+    private static final int ENTITIES = 0;
+    private static final int BLOCK_ENTITIES = 1;
+
+    /**
+     * 地皮 ID -> {实体数量, 方块实体数量}
+     */
+    private final Map<Integer, int[]> counts = new HashMap<>();
+
+    /**
+     * 实体 ID -> 地皮 ID
+     */
+    private final Map<Long, Integer> entityLands = new HashMap<>();
+
+    /**
+     * 世界 -> 区块 -> 该区块中计入的方块实体, 卸载区块时减去
+     */
+    private final Map<String, Map<Long, ChunkCount>> chunkBlockEntities = new HashMap<>();
+
+    private static final class ChunkCount {
+        private int[] lands = new int[2];
+        private int[] counts = new int[2];
+        private int size;
+
+        private void add(int land, int delta) {
+            for (int i = 0; i < size; i++) {
+                if (lands[i] == land) {
+                    counts[i] = Math.max(0, counts[i] + delta);
+                    return;
+                }
+            }
+            if (delta <= 0) {
+                return;
+            }
+            if (size == lands.length) {
+                lands = Arrays.copyOf(lands, size * 2);
+                counts = Arrays.copyOf(counts, size * 2);
+            }
+            lands[size] = land;
+            counts[size++] = delta;
+        }
+    }
+
+    private int[] count(int land) {
+        int[] count = counts.get(land);
+        if (count == null) {
+            counts.put(land, count = new int[2]);
+        }
+        return count;
+    }
+
+    private void add(int land, int type, int delta) {
+        int[] count = count(land);
+        count[type] = Math.max(0, count[type] + delta);
+    }
+
+    public int getEntities(int land) {
+        int[] count = counts.get(land);
+        return count == null ? 0 : count[ENTITIES];
+    }
+
+    public int getBlockEntities(int land) {
+        int[] count = counts.get(land);
+        return count == null ? 0 : count[BLOCK_ENTITIES];
+    }
+
+    /**
+     * Counts an entity, should be called when the entity spawns
+     *
+     * @param entityId entity id
+     * @param land     land id
+     */
+    public void addEntity(long entityId, int land) {
+        Integer previous = entityLands.put(entityId, land);
+        if (previous != null) {
+            add(previous, ENTITIES, -1);
+        }
+        add(land, ENTITIES, 1);
+    }
+
+    /**
+     * Stops counting an entity, should be called when the entity despawns
+     *
+     * @param entityId entity id
+     */
+    public void removeEntity(long entityId) {
+        Integer land = entityLands.remove(entityId);
+        if (land != null) {
+            add(land, ENTITIES, -1);
+        }
+    }
+
+    /**
+     * Counts a placed or broken block entity
+     *
+     * @param level  level
+     * @param x      x
+     * @param z      z
+     * @param land   land id
+     * @param placed TRUE on placed, FALSE on broken
+     */
+    public void updateBlockEntity(Level level, int x, int z, int land, boolean placed) {
+        int delta = placed ? 1 : -1;
+        add(land, BLOCK_ENTITIES, delta);
+
+        Map<Long, ChunkCount> chunks = chunkBlockEntities.get(level.getFolderName());
+        if (chunks != null) {
+            ChunkCount chunk = chunks.get(Level.chunkHash(x >> 4, z >> 4));
+            if (chunk != null) {
+                chunk.add(land, delta);
+            }
+        }
+    }
+
+    /**
+     * Counts the block entities in the chunk, should be called when the chunk is loaded
+     *
+     * @param level level
+     * @param chunk chunk
+     * @param grid  grid of the level
+     */
+    public void load(Level level, FullChunk chunk, SLandGrid grid) {
+        ChunkCount count = new ChunkCount();
+        for (BlockEntity blockEntity : chunk.getBlockEntities().values()) {
+            int value = grid.getValue(blockEntity.getFloorX(), blockEntity.getFloorZ());
+            if (value >= 0) {
+                int land = value & SLandGrid.ID_MASK;
+                count.add(land, 1);
+                add(land, BLOCK_ENTITIES, 1);
+            }
+        }
+
+        Map<Long, ChunkCount> chunks = chunkBlockEntities.get(level.getFolderName());
+        if (chunks == null) {
+            chunkBlockEntities.put(level.getFolderName(), chunks = new HashMap<>());
+        }
+        ChunkCount previous = chunks.put(Level.chunkHash(chunk.getX(), chunk.getZ()), count);
+        if (previous != null) {
+            subtract(previous);
+        }
+    }
+
+    /**
+     * Recounts the block entities in the loaded chunks of the land from the block entities of the chunks.
+     * Other lands sharing these chunks are recounted as well
+     *
+     * @param level level of the land
+     * @param land  land
+     * @param grid  grid of the level
+     * @return the new count of block entities of the land
+     */
+    public int recountBlockEntities(Level level, SLand land, SLandGrid grid) {
+        Map<Long, ChunkCount> chunks = chunkBlockEntities.get(level.getFolderName());
+        if (chunks != null) {
+            for (int chunkX = land.getX().getMin() >> 4; chunkX <= land.getX().getMax() >> 4; chunkX++) {
+                for (int chunkZ = land.getZ().getMin() >> 4; chunkZ <= land.getZ().getMax() >> 4; chunkZ++) {
+                    if (chunks.containsKey(Level.chunkHash(chunkX, chunkZ))) { //只统计已加载的区块
+                        FullChunk chunk = level.getChunk(chunkX, chunkZ);
+                        if (chunk != null) {
+                            load(level, chunk, grid);
+                        }
+                    }
+                }
+            }
+        }
+        return getBlockEntities(land.getId());
+    }
+
+    /**
+     * Subtracts the block entities in the chunk, should be called when the chunk is unloaded
+     *
+     * @param level level
+     * @param chunk chunk
+     */
+    public void unload(Level level, FullChunk chunk) {
+        Map<Long, ChunkCount> chunks = chunkBlockEntities.get(level.getFolderName());
+        if (chunks != null) {
+            ChunkCount count = chunks.remove(Level.chunkHash(chunk.getX(), chunk.getZ()));
+            if (count != null) {
+                subtract(count);
+            }
+        }
+    }
+
+    private void subtract(ChunkCount count) {
+        for (int i = 0; i < count.size; i++) {
+            add(count.lands[i], BLOCK_ENTITIES, -count.counts[i]);
+        }
+    }
+
+    /**
+     * Removes all block entity counts of the level, should be called when the level is unloaded
+     *
+     * @param level level
+     */
+    public void removeLevel(Level level) {
+        Map<Long, ChunkCount> chunks = chunkBlockEntities.remove(level.getFolderName());
+        if (chunks != null) {
+            chunks.values().forEach(this::subtract);
+        }
+    }
+}
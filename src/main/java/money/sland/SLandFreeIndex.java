@@ -0,0 +1,126 @@
+package money.sland;
+
+import money.generator.SLandLayout;
+
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * 一个地皮世界中已被购买的网格的索引, 用于查找空闲地皮 <br>
+ * Index of the owned cells of one land level, used to find free lands.
+ * <p>
+ * 已被购买的网格按螺旋编号 (见 {@link SLandLayout#spiralIndex(int, int)}) 合并为连续区间,
+ * 因此离世界中心最近的空闲网格可以在 O(log n) 内找到, n 为区间数量. <br>
+ * Owned cells are merged into runs of consecutive spiral indexes (see {@link SLandLayout#spiralIndex(int, int)}),
+ * so the free cell closest to the center of the level is found in O(log n), where n is the count of runs.
+ * <p>
+ * 线程安全 <br>
+ * Thread-safe.
+ *
+ * @author Him188 @ MoneySLand Project
+ */
+final class SLandFreeIndex {
+    private final Set<Long> owned = new HashSet<>();
+    //区间起点 -> 区间终点(包含)
+    private final TreeMap<Long, Long> runs = new TreeMap<>();
+
+    /**
+     * Marks a cell as owned or free
+     *
+     * @param cellX cell x
+     * @param cellZ cell z
+     * @param isOwned if the land in the cell is owned
+     */
+    synchronized void set(int cellX, int cellZ, boolean isOwned) {
+        long key = SLandLayout.cellKey(cellX, cellZ);
+        if (isOwned ? !owned.add(key) : !owned.remove(key)) {
+            return;
+        }
+
+        long index = SLandLayout.spiralIndex(cellX, cellZ);
+        if (isOwned) {
+            long start = index;
+            long end = index;
+            Map.Entry<Long, Long> left = runs.floorEntry(index - 1);
+            if (left != null && left.getValue() == index - 1) {
+                start = left.getKey();
+            }
+            Long right = runs.remove(index + 1);
+            if (right != null) {
+                end = right;
+            }
+            runs.put(start, end);
+        } else {
+            Map.Entry<Long, Long> run = runs.floorEntry(index);
+            if (run == null || run.getValue() < index) {
+                return;
+            }
+            runs.remove(run.getKey());
+            if (run.getKey() < index) {
+                runs.put(run.getKey(), index - 1);
+            }
+            if (run.getValue() > index) {
+                runs.put(index + 1, run.getValue());
+            }
+        }
+    }
+
+    synchronized boolean isOwned(int cellX, int cellZ) {
+        return owned.contains(SLandLayout.cellKey(cellX, cellZ));
+    }
+
+    /**
+     * Gets the smallest spiral index of a free cell
+     *
+     * @return the spiral index
+     */
+    synchronized long firstFree() {
+        Map.Entry<Long, Long> run = runs.firstEntry();
+        return run != null && run.getKey() == 0 ? run.getValue() + 1 : 0;
+    }
+
+    /**
+     * Gets the smallest spiral index of a free cell that is not less than {@code from}
+     *
+     * @param from spiral index
+     * @return the spiral index
+     */
+    synchronized long nextFree(long from) {
+        Map.Entry<Long, Long> run = runs.floorEntry(from);
+        return run != null && run.getValue() >= from ? run.getValue() + 1 : from;
+    }
+
+    /**
+     * Finds the free cell nearest to a cell, searching ring by ring (cells with the same Chebyshev distance form a ring).
+     * The cost is bounded by the count of owned cells nearer than the result.
+     *
+     * @param cellX    cell x
+     * @param cellZ    cell z
+     * @param maxRings max rings to search
+     * @return key of the cell, see {@link SLandLayout#cellKey(int, int)}, or null if not found
+     */
+    synchronized Long nearestFree(int cellX, int cellZ, int maxRings) {
+        for (int k = 0; k <= maxRings; k++) {
+            Long best = null;
+            long bestDistance = Long.MAX_VALUE;
+            //第 k 圈中按欧几里得距离选择最近的
+            for (int dx = -k; dx <= k; dx++) {
+                int step = dx == -k || dx == k ? 1 : 2 * k;
+                for (int dz = -k; dz <= k; dz += step) {
+                    long key = SLandLayout.cellKey(cellX + dx, cellZ + dz);
+                    long distance = (long) dx * dx + (long) dz * dz;
+                    if (distance < bestDistance && !owned.contains(key)) {
+                        best = key;
+                        bestDistance = distance;
+                    }
+                }
+            }
+            if (best != null) {
+                return best;
+            }
+        }
+        return null;
+    }
+}
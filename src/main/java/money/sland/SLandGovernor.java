@@ -0,0 +1,223 @@
+package money.sland;
+
+import cn.nukkit.Server;
+import cn.nukkit.level.Position;
+import money.MoneySLand;
+
+import java.util.*;
+
+/**
+ * 限制每块地皮每 tick 的红石更新和漏斗传输次数 <br>
+ * Limits redstone updates and hopper transfers of each land in every tick.
+ * <p>
+ * 超出预算的红石更新会被丢弃, 超出预算的漏斗传输会被推迟到漏斗下一次传输.
+ * 一分钟内被限制的 tick 数超过阈值记为一次违规, 连续违规的地皮会被标记. <br>
+ * Redstone updates over the budget are dropped, hopper transfers over the budget are deferred to the next transfer of the hopper.
+ * A land throttled in too many ticks within a minute commits an offence, lands with repeated offences are flagged.
+ * <p>
+ * 只为被限制过的地皮保存记录, 没有违规且一分钟内未被限制的记录会被删除. <br>
+ * Records are only kept for throttled lands. Records without offences which have not been throttled for a minute are removed.
+ * <p>
+ * 只能在主线程中使用 <br>
+ * Main thread only.
+ *
+ * @author Him188 @ MoneySLand Project
+ */
+public final class SLandGovernor {
+    private static final long WINDOW_MILLIS = 60 * 1000;
+    private static final int FLAG_OFFENCES = 3;
+
+    /**
+     * 一块地皮的限制状态 <br>
+     * Throttling state of a land
+     */
+    public static final class Record {
+        private final int land;
+
+        private int tick = -1;
+        private long lastThrottled;
+
+        private long windowStart;
+        private int throttledTicks;
+        private int offences;
+        private long totalThrottledTicks;
+
+        private Record(int land) {
+            this.land = land;
+        }
+
+        public int getLand() {
+            return land;
+        }
+
+        /**
+         * Gets the count of recent windows with offences, decreased by clean windows
+         *
+         * @return offences
+         */
+        public int getOffences() {
+            return offences;
+        }
+
+        /**
+         * Gets the count of ticks in which the land is throttled since the record was created
+         *
+         * @return ticks
+         */
+        public long getTotalThrottledTicks() {
+            return totalThrottledTicks;
+        }
+
+        public boolean isFlagged() {
+            return offences >= FLAG_OFFENCES;
+        }
+    }
+
+    private final MoneySLand plugin;
+    private final int redstoneBudget;
+    private final int hopperBudget;
+    private final int offenceTicks;
+
+    private final Map<Integer, Record> records = new HashMap<>();
+    //当前 tick 中各地皮的计数: [红石更新, 漏斗传输]
+    private final Map<Integer, int[]> counts = new HashMap<>();
+    private int tick = -1;
+    private long lastPrune;
+
+    /**
+     * @param plugin         plugin
+     * @param redstoneBudget redstone updates allowed per land per tick, 0 for unlimited
+     * @param hopperBudget   hopper transfers allowed per land per tick, 0 for unlimited
+     * @param offenceTicks   count of throttled ticks within a minute which makes an offence
+     */
+    public SLandGovernor(MoneySLand plugin, int redstoneBudget, int hopperBudget, int offenceTicks) {
+        this.plugin = plugin;
+        this.redstoneBudget = redstoneBudget;
+        this.hopperBudget = hopperBudget;
+        this.offenceTicks = Math.max(1, offenceTicks);
+    }
+
+    /**
+     * Counts a redstone update
+     *
+     * @param position position of the update
+     * @return FALSE if the update should be dropped
+     */
+    public boolean allowRedstone(Position position) {
+        if (redstoneBudget <= 0) {
+            return true;
+        }
+        int land = land(position);
+        return land < 0 || check(land, ++count(land)[0] > redstoneBudget);
+    }
+
+    /**
+     * Counts a hopper transfer
+     *
+     * @param position position of the hopper
+     * @return FALSE if the transfer should be deferred
+     */
+    public boolean allowHopper(Position position) {
+        if (hopperBudget <= 0) {
+            return true;
+        }
+        int land = land(position);
+        return land < 0 || check(land, ++count(land)[1] > hopperBudget);
+    }
+
+    private int land(Position position) {
+        SLandGrid grid = plugin.getGrid(position.getLevel());
+        if (grid == null) {
+            return -1;
+        }
+        int value = grid.getValue(position.getFloorX(), position.getFloorZ());
+        return value < 0 ? -1 : value & SLandGrid.ID_MASK;
+    }
+
+    private int[] count(int land) {
+        int tick = Server.getInstance().getTick();
+        if (this.tick != tick) { //新的一 tick, 重置预算
+            this.tick = tick;
+            counts.clear();
+
+            long now = System.currentTimeMillis();
+            if (now - lastPrune >= WINDOW_MILLIS) {
+                lastPrune = now;
+                prune(now);
+            }
+        }
+        return counts.computeIfAbsent(land, k -> new int[2]);
+    }
+
+    /**
+     * 删除没有违规且一个窗口内未被限制的记录
+     */
+    private void prune(long now) {
+        records.values().removeIf(record -> {
+            if (now - record.lastThrottled < WINDOW_MILLIS) {
+                return false;
+            }
+            if (now - record.windowStart >= WINDOW_MILLIS) {
+                closeWindow(record, now);
+            }
+            return record.offences == 0;
+        });
+    }
+
+    private boolean check(int landId, boolean exceeded) {
+        if (!exceeded) {
+            return true;
+        }
+
+        Record record = records.computeIfAbsent(landId, Record::new); //只为超出预算的地皮创建记录
+        if (record.tick != tick) { //这一 tick 第一次被限制
+            record.tick = tick;
+            record.totalThrottledTicks++;
+
+            long now = System.currentTimeMillis();
+            record.lastThrottled = now;
+            if (now - record.windowStart >= WINDOW_MILLIS) {
+                closeWindow(record, now);
+            }
+            if (++record.throttledTicks == offenceTicks) {
+                record.offences++;
+                if (record.offences == FLAG_OFFENCES) {
+                    SLand land = plugin.getLand(record.land);
+                    plugin.getLogger().warning("Land #" + record.land + (land != null && land.isOwned() ? " (" + land.getOwner() + ")" : "")
+                            + " is flagged for exceeding its redstone/hopper budget repeatedly");
+                }
+            }
+        }
+        return false;
+    }
+
+    private void closeWindow(Record record, long now) {
+        if (record.windowStart != 0) {
+            //没有违规的窗口, 以及之后完全没有被限制的窗口, 每个减少一次违规
+            long clean = (record.throttledTicks < offenceTicks ? 1 : 0) + (now - record.windowStart) / WINDOW_MILLIS - 1;
+            record.offences = (int) Math.max(0, record.offences - clean);
+        }
+        record.windowStart = now;
+        record.throttledTicks = 0;
+    }
+
+    /**
+     * Gets lands which have been throttled, flagged lands first
+     *
+     * @return records sorted by offences and throttled ticks
+     */
+    public List<Record> getThrottled() {
+        long now = System.currentTimeMillis();
+        List<Record> result = new ArrayList<>();
+        for (Record record : records.values()) {
+            if (record.totalThrottledTicks > 0) {
+                if (now - record.windowStart >= WINDOW_MILLIS) {
+                    closeWindow(record, now);
+                }
+                result.add(record);
+            }
+        }
+        result.sort(Comparator.comparingInt(Record::getOffences).thenComparingLong(Record::getTotalThrottledTicks).reversed());
+        return result;
+    }
+}
@@ -0,0 +1,517 @@
+package money.sland;
+
+import cn.nukkit.level.Level;
+import cn.nukkit.level.format.FullChunk;
+import cn.nukkit.math.Vector3;
+import money.generator.SLandLayout;
+import money.generator.SLandTemplate;
+import money.utils.Range;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 一个地皮世界的地皮索引. 按网格和区块索引地皮, 使坐标查询不需要遍历地皮池 <br>
+ * Land index of one land level. Lands are indexed by grid cell and by loaded chunk,
+ * so that resolving a position never scans the land pool.
+ * <p>
+ * 网格与地皮 ID 一一对应: ID 的高位是世界编号, 低位是网格的螺旋编号 (见 {@link SLandLayout#spiralIndex(int, int)}).
+ * 未被购买且未被修改的地皮不保存, 需要时按网格计算, 第一次被修改时才加入地皮池.
+ * 旧版本生成的地皮保留原有 ID (世界编号为 0). <br>
+ * Cells and land ids map one to one: the high bits of an id are the number of the level, the low bits are the spiral index of the cell
+ * (see {@link SLandLayout#spiralIndex(int, int)}). Unowned and unmodified lands are not stored but computed from the cell when needed,
+ * and are added to the land pool when modified for the first time. Lands generated by older versions keep their ids (level number 0).
+ * <p>
+ * 每个已加载的区块都有一个 16x16 的地皮 ID 表, 过道为 {@link #AISLE}, 边框为 {@link #FRAME_FLAG} | ID. <br>
+ * Every loaded chunk carries a 16x16 map of land ids. Aisle columns are {@link #AISLE},
+ * frame columns are {@link #FRAME_FLAG} | id.
+ *
+ * @author Him188 @ MoneySLand Project
+ */
+public final class SLandGrid {
+    /**
+     * 过道
+     */
+    public static final int AISLE = -1;
+    /**
+     * 网格超出地皮 ID 的范围
+     */
+    public static final int UNRESOLVED = -2;
+    /**
+     * 边框标记
+     */
+    public static final int FRAME_FLAG = 1 << 30;
+    public static final int ID_MASK = FRAME_FLAG - 1;
+
+    /**
+     * 地皮 ID 中螺旋编号的位数
+     */
+    public static final int SPIRAL_BITS = 26;
+    public static final int SPIRAL_MASK = (1 << SPIRAL_BITS) - 1;
+    /**
+     * 最大的世界编号, 0 保留给旧版本生成的地皮
+     */
+    public static final int MAX_LEVEL_NUMBER = ID_MASK >>> SPIRAL_BITS;
+
+    //查找附近的空闲地皮时最多搜索的圈数
+    private static final int MAX_SEARCH_RINGS = 64;
+
+    private static final class ImplicitLand extends WeakReference<SLand> {
+        private final long key;
+
+        private ImplicitLand(long key, SLand land, ReferenceQueue<SLand> queue) {
+            super(land, queue);
+            this.key = key;
+        }
+    }
+
+    private final String level;
+    private final SLandTemplate template;
+    private final SLandLayout layout;
+    private final int number;
+
+    private final Map<Long, SLand> cells = new ConcurrentHashMap<>();
+    //未保存的地皮, 弱引用. 只要地皮对象仍被持有, 同一网格就只有这一个对象. 由自身同步
+    private final Map<Long, ImplicitLand> implicitLands = new HashMap<>();
+    private final ReferenceQueue<SLand> collectedLands = new ReferenceQueue<>();
+    private final Map<Long, int[]> chunks = new ConcurrentHashMap<>();
+    private final SLandFreeIndex freeIndex = new SLandFreeIndex();
+
+    /**
+     * @param level    level folder name
+     * @param template template of the level
+     * @param pool     stored lands
+     * @param number   number of the level in land ids, 1 to {@link #MAX_LEVEL_NUMBER}, or 0 to disable unstored lands
+     */
+    public SLandGrid(String level, SLandTemplate template, SLandPool pool, int number) {
+        this.level = level;
+        this.template = template;
+        this.layout = template.getLayout();
+        this.number = number;
+
+        for (SLand land : pool.values()) {
+            if (land.getLevel().equalsIgnoreCase(level)) {
+                add(land);
+            }
+        }
+    }
+
+    public String getLevel() {
+        return level;
+    }
+
+    public SLandLayout getLayout() {
+        return layout;
+    }
+
+    public SLandTemplate getTemplate() {
+        return template;
+    }
+
+    /**
+     * Gets the number of the level in land ids
+     *
+     * @return the number, 0 if unstored lands are disabled
+     */
+    public int getNumber() {
+        return number;
+    }
+
+    private long cellKeyOf(SLand land) {
+        return layout.cellKeyAt(land.getX().getMin(), land.getZ().getMin());
+    }
+
+    /**
+     * Stores a land, should be called when an unstored land is modified for the first time
+     *
+     * @param land land
+     */
+    public void add(SLand land) {
+        long key = cellKeyOf(land);
+        synchronized (implicitLands) {
+            cells.put(key, land);
+            implicitLands.remove(key);
+        }
+        freeIndex.set(SLandLayout.cellX(key), SLandLayout.cellZ(key), land.isOwned());
+    }
+
+    /**
+     * Updates the index of free lands, should be called when the owner of a land is changed
+     *
+     * @param land land
+     */
+    public void ownerChanged(SLand land) {
+        long key = cellKeyOf(land);
+        if (cells.get(key) == land) {
+            freeIndex.set(SLandLayout.cellX(key), SLandLayout.cellZ(key), land.isOwned());
+        }
+    }
+
+    /**
+     * Gets the stored lands of the level
+     *
+     * @return unmodifiable view of the lands
+     */
+    public Collection<SLand> getStoredLands() {
+        return Collections.unmodifiableCollection(cells.values());
+    }
+
+    /**
+     * Gets the land in the cell, computing it if it is not stored
+     *
+     * @param cellX cell x
+     * @param cellZ cell z
+     * @return the land, or null if the cell is out of the range of land ids
+     */
+    public SLand getLandInCell(int cellX, int cellZ) {
+        long key = SLandLayout.cellKey(cellX, cellZ);
+        SLand land = cells.get(key);
+        if (land != null) {
+            return land;
+        }
+
+        int id = getLandId(cellX, cellZ);
+        if (id < 0) {
+            return null;
+        }
+        synchronized (implicitLands) {
+            expungeImplicitLands();
+            land = cells.get(key); //可能在同步前被保存
+            if (land != null) {
+                return land;
+            }
+            ImplicitLand ref = implicitLands.get(key);
+            if (ref == null || (land = ref.get()) == null) {
+                land = newLand(id, cellX, cellZ);
+                implicitLands.put(key, new ImplicitLand(key, land, collectedLands));
+            }
+            return land;
+        }
+    }
+
+    /**
+     * 删除已被回收的未保存地皮
+     */
+    private void expungeImplicitLands() {
+        Reference<? extends SLand> ref;
+        while ((ref = collectedLands.poll()) != null) {
+            long key = ((ImplicitLand) ref).key;
+            if (implicitLands.get(key) == ref) {
+                implicitLands.remove(key);
+            }
+        }
+    }
+
+    /**
+     * Gets the stored land in the cell
+     *
+     * @param cellX cell x
+     * @param cellZ cell z
+     * @return the land, or null if it is not stored, which means the land is unowned and unmodified
+     */
+    public SLand getStoredLandInCell(int cellX, int cellZ) {
+        return cells.get(SLandLayout.cellKey(cellX, cellZ));
+    }
+
+    /**
+     * Gets the id of the land in the cell
+     *
+     * @param cellX cell x
+     * @param cellZ cell z
+     * @return the id, or -1 if the cell is out of the range of land ids
+     */
+    public int getLandId(int cellX, int cellZ) {
+        SLand land = cells.get(SLandLayout.cellKey(cellX, cellZ));
+        if (land != null) {
+            return land.getId();
+        }
+        if (number <= 0 || layout.isBroken()) {
+            return -1;
+        }
+        long index = SLandLayout.spiralIndex(cellX, cellZ);
+        if (index > SPIRAL_MASK) {
+            return -1;
+        }
+        return (number << SPIRAL_BITS) | (int) index;
+    }
+
+    /**
+     * Gets a land by id
+     *
+     * @param id id
+     * @return the land, or null if the id does not belong to this level
+     */
+    public SLand getLand(int id) {
+        if (number <= 0 || id >>> SPIRAL_BITS != number) {
+            return null;
+        }
+        long key = SLandLayout.spiralCell(id & SPIRAL_MASK);
+        SLand land = getLandInCell(SLandLayout.cellX(key), SLandLayout.cellZ(key));
+        return land != null && land.getId() == id ? land : null; //网格中可能是旧版本生成的地皮
+    }
+
+    /**
+     * Finds an unowned land, the one closest to the center of the level (which is the spawn of land levels) in spiral order.
+     * Costs O(log n) with n owned lands.
+     *
+     * @return the land, or null if all lands are owned
+     */
+    public SLand findUnownedLand() {
+        if (number > 0 && !layout.isBroken()) {
+            long index = freeIndex.firstFree();
+            if (index <= SPIRAL_MASK) {
+                long key = SLandLayout.spiralCell(index);
+                return getLandInCell(SLandLayout.cellX(key), SLandLayout.cellZ(key));
+            }
+        }
+        return findStoredUnownedLand();
+    }
+
+    /**
+     * Gets the spiral index of the first unowned land at or after {@code from} in spiral order. Costs O(log n) with n owned lands.
+     *
+     * @param from spiral index
+     * @return the spiral index, see {@link #getLandBySpiralIndex(long)}, or -1 if there is none
+     */
+    public long nextUnownedIndex(long from) {
+        if (number <= 0 || layout.isBroken()) {
+            return -1;
+        }
+        long index = freeIndex.nextFree(Math.max(0, from));
+        return index <= SPIRAL_MASK ? index : -1;
+    }
+
+    /**
+     * Gets the land in the cell with the spiral index
+     *
+     * @param index spiral index, see {@link SLandLayout#spiralIndex(int, int)}
+     * @return the land, or null if the cell is out of the range of land ids
+     */
+    public SLand getLandBySpiralIndex(long index) {
+        long key = SLandLayout.spiralCell(index);
+        return getLandInCell(SLandLayout.cellX(key), SLandLayout.cellZ(key));
+    }
+
+    /**
+     * Finds the unowned land nearest to the column, or the one closest to the center of the level if there is none nearby
+     *
+     * @param x x
+     * @param z z
+     * @return the land, or null if all lands are owned
+     */
+    public SLand findUnownedLand(int x, int z) {
+        if (!layout.isBroken()) {
+            Long key = freeIndex.nearestFree(layout.cell(x), layout.cell(z), MAX_SEARCH_RINGS);
+            if (key != null) {
+                SLand land = getLandInCell(SLandLayout.cellX(key), SLandLayout.cellZ(key));
+                if (land != null && !land.isOwned()) {
+                    return land;
+                }
+            }
+        }
+        return findUnownedLand();
+    }
+
+    private SLand findStoredUnownedLand() {
+        for (SLand land : cells.values()) {
+            if (!land.isOwned()) {
+                return land;
+            }
+        }
+        return null;
+    }
+
+    private SLand newLand(int id, int cellX, int cellZ) {
+        int minX = layout.corner(cellX);
+        int minZ = layout.corner(cellZ);
+        int lengthX = layout.getLandWidth(cellX) - 2 * layout.getFrameWidth() + 1;
+        int lengthZ = layout.getLandWidth(cellZ) - 2 * layout.getFrameWidth() + 1;
+        //负坐标一侧的地皮从角落向负方向延伸, 范围统一为 min <= max
+        int otherX = minX + (cellX < 0 ? -1 : 1) * lengthX;
+        int otherZ = minZ + (cellZ < 0 ? -1 : 1) * lengthZ;
+        return SLand.newInitialLand(
+                id,
+                new Range(Math.min(minX, otherX), Math.max(minX, otherX)),
+                new Range(Math.min(minZ, otherZ), Math.max(minZ, otherZ)),
+                level,
+                new Vector3(minX, template.getGroundHeight() + 2, minZ)
+        );
+    }
+
+    /**
+     * Builds the map of a chunk, should be called when the chunk is loaded
+     *
+     * @param chunk chunk
+     */
+    public void load(FullChunk chunk) {
+        int[] map = new int[256];
+        int baseX = chunk.getX() << 4;
+        int baseZ = chunk.getZ() << 4;
+        for (int i = 0; i < 256; i++) {
+            map[i] = resolve(baseX | (i & 15), baseZ | (i >> 4));
+        }
+        chunks.put(Level.chunkHash(chunk.getX(), chunk.getZ()), map);
+    }
+
+    public void unload(FullChunk chunk) {
+        chunks.remove(Level.chunkHash(chunk.getX(), chunk.getZ()));
+    }
+
+    private int resolve(int x, int z) {
+        byte type = layout.type(x, z);
+        if (type == SLandLayout.AISLE) {
+            return AISLE;
+        }
+        int id = getLandId(layout.cell(x), layout.cell(z));
+        if (id < 0) {
+            return UNRESOLVED;
+        }
+        return type == SLandLayout.FRAME ? FRAME_FLAG | id : id;
+    }
+
+    /**
+     * Gets the value in chunk map of the column
+     *
+     * @param x x
+     * @param z z
+     * @return land id, {@link #FRAME_FLAG} | land id, {@link #AISLE} or {@link #UNRESOLVED} if the cell is out of the range of land ids
+     */
+    public int getValue(int x, int z) {
+        int[] map = chunks.get(Level.chunkHash(x >> 4, z >> 4));
+        if (map != null) {
+            int value = map[((z & 15) << 4) | (x & 15)];
+            if (value != UNRESOLVED) {
+                return value;
+            }
+        }
+        return resolve(x, z);
+    }
+
+    /**
+     * Retains the blocks in the ground of the land in one pass, used by explosions.
+     * The cost is bounded by the size of {@code blocks}.
+     *
+     * @param blocks blocks
+     * @param value  the value in chunk map of the land, blocks in other lands, aisles and frames are removed
+     * @return blocks in the ground of the land
+     */
+    public <T extends Vector3> List<T> retainGround(List<T> blocks, int value) {
+        List<T> result = new ArrayList<>(blocks.size());
+        if (value < 0 || (value & FRAME_FLAG) != 0) {
+            return result;
+        }
+
+        long lastHash = 0;
+        int[] lastMap = null;
+        for (T block : blocks) {
+            int x = block.getFloorX();
+            int z = block.getFloorZ();
+            long hash = Level.chunkHash(x >> 4, z >> 4);
+            if (lastMap == null || hash != lastHash) {
+                lastHash = hash;
+                lastMap = chunks.get(hash);
+            }
+
+            int v = lastMap == null ? UNRESOLVED : lastMap[((z & 15) << 4) | (x & 15)];
+            if (v == UNRESOLVED) {
+                v = resolve(x, z);
+            }
+            if (v == value) {
+                result.add(block);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Gets the lands (including frames) intersecting the rectangle. The cost is proportional to the count of cells in the rectangle,
+     * which is close to the count of results
+     *
+     * @param minX min x, inclusive
+     * @param minZ min z, inclusive
+     * @param maxX max x, inclusive
+     * @param maxZ max z, inclusive
+     * @return the lands, including unowned lands which are not stored
+     */
+    public List<SLand> getLandsInArea(int minX, int minZ, int maxX, int maxZ) {
+        return collect(minX, minZ, maxX, maxZ, 0, 0, -1);
+    }
+
+    /**
+     * Gets the lands (including frames) within the radius of the column
+     *
+     * @param x      x
+     * @param z      z
+     * @param radius radius in blocks
+     * @return the lands, including unowned lands which are not stored
+     */
+    public List<SLand> getLandsInRadius(double x, double z, double radius) {
+        if (radius < 0) {
+            return new ArrayList<>();
+        }
+        return collect((int) Math.floor(x - radius), (int) Math.floor(z - radius),
+                (int) Math.floor(x + radius), (int) Math.floor(z + radius), x, z, radius);
+    }
+
+    /**
+     * 枚举与矩形相交的网格. radius 不小于 0 时只保留在圆内的地皮
+     */
+    private List<SLand> collect(int minX, int minZ, int maxX, int maxZ, double x, double z, double radius) {
+        List<SLand> result = new ArrayList<>();
+        if (layout.isBroken() || minX > maxX || minZ > maxZ) {
+            return result;
+        }
+        for (int cellX = layout.cell(minX); cellX <= layout.cell(maxX); cellX++) {
+            //只与过道相交的网格不包括在内
+            if (layout.landMax(cellX) < minX || layout.landMin(cellX) > maxX) {
+                continue;
+            }
+            double dx = distance(x, layout.landMin(cellX), layout.landMax(cellX) + 1);
+            for (int cellZ = layout.cell(minZ); cellZ <= layout.cell(maxZ); cellZ++) {
+                if (layout.landMax(cellZ) < minZ || layout.landMin(cellZ) > maxZ) {
+                    continue;
+                }
+                if (radius >= 0) {
+                    double dz = distance(z, layout.landMin(cellZ), layout.landMax(cellZ) + 1);
+                    if (dx * dx + dz * dz > radius * radius) {
+                        continue; //只在外接正方形的角上相交
+                    }
+                }
+                SLand land = getLandInCell(cellX, cellZ);
+                if (land != null) {
+                    result.add(land);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 点到区间 [min, max) 的距离
+     */
+    private static double distance(double value, double min, double max) {
+        return value < min ? min - value : value > max ? value - max : 0;
+    }
+
+    /**
+     * Gets the land including the column (including frames)
+     *
+     * @param x x
+     * @param z z
+     * @return the land, or null if the column is aisle
+     */
+    public SLand getLand(int x, int z) {
+        if (layout.type(x, z) == SLandLayout.AISLE) {
+            return null;
+        }
+        return getLandInCell(layout.cell(x), layout.cell(z));
+    }
+}
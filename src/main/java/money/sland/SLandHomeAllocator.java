@@ -0,0 +1,216 @@
+package money.sland;
+
+import cn.nukkit.Player;
+import cn.nukkit.Server;
+import cn.nukkit.block.Block;
+import cn.nukkit.level.Level;
+import cn.nukkit.utils.Config;
+import money.MoneySLand;
+import money.event.MoneySLandOwnerChangeEvent;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * 家园分配器. 从家园世界中预留一批区块已生成的空闲地皮, 玩家大量加入时直接从预留中分配, 每位玩家一个家园 <br>
+ * Home allocator. A reserve of free lands whose chunks are already generated is kept in the home level,
+ * so that homes are handed out directly from the reserve when many players join at once. Every player gets one home.
+ * <p>
+ * 预留的地皮保存在无锁队列中, 每块地皮只会被取出一次, 因此不会被分配两次. 预留按螺旋顺序从世界中心向外补充, 使相邻的玩家成为邻居.
+ * 补充时请求服务器在异步线程池中生成地皮所在的区块, 区块生成完成后地皮才进入预留. <br>
+ * Reserved lands are kept in a lock-free queue and every land is taken out at most once, so no land is assigned twice.
+ * The reserve is refilled in spiral order from the center of the level, so players joining together become neighbours.
+ * While refilling, the chunks of the lands are generated by the async worker pool of the server,
+ * and a land enters the reserve only after its chunks are generated.
+ * <p>
+ * 已分配过家园的玩家被记录在 homes.yml 中, 之后不会再次获得家园, 即使已卖出家园. <br>
+ * Players who have been assigned a home are recorded in homes.yml and never get another one, even after selling it.
+ *
+ * @author Him188 @ MoneySLand Project
+ */
+public final class SLandHomeAllocator {
+    private final MoneySLand plugin;
+    private final String level;
+    private final int reserveSize;
+
+    private final Queue<SLand> reserve = new ConcurrentLinkedQueue<>();
+    //正在分配家园的玩家, 防止同一玩家同时获得两个家园
+    private final Set<UUID> assigning = ConcurrentHashMap.newKeySet();
+    //已分配过家园的玩家 (小写)
+    private final Set<String> assigned = ConcurrentHashMap.newKeySet();
+    private final Config homes;
+    private volatile boolean dirty;
+
+    //以下只在主线程中使用
+    private final List<SLand> generating = new ArrayList<>();
+    private long cursor;
+
+    /**
+     * @param plugin      plugin
+     * @param level       folder name of the home level
+     * @param reserveSize count of lands to keep in the reserve
+     * @param homes       config recording players who have been assigned a home
+     */
+    public SLandHomeAllocator(MoneySLand plugin, String level, int reserveSize, Config homes) {
+        this.plugin = plugin;
+        this.level = level;
+        this.reserveSize = Math.max(1, reserveSize);
+        this.homes = homes;
+        for (String name : homes.getStringList("assigned")) {
+            assigned.add(name.toLowerCase());
+        }
+    }
+
+    /**
+     * Returns if the player has been assigned a home
+     *
+     * @param player player's name
+     * @return TRUE if assigned
+     */
+    public boolean isAssigned(String player) {
+        return assigned.contains(player.toLowerCase());
+    }
+
+    /**
+     * Saves the players who have been assigned a home, if changed
+     */
+    public void save() {
+        if (!dirty) {
+            return;
+        }
+        dirty = false;
+        homes.set("assigned", new ArrayList<>(assigned));
+        homes.save();
+    }
+
+    public String getLevel() {
+        return level;
+    }
+
+    /**
+     * Gets the count of lands ready to be assigned
+     *
+     * @return the count
+     */
+    public int getReserved() {
+        return reserve.size();
+    }
+
+    /**
+     * Takes a free land out of the reserve. This method is thread-safe and lock-free,
+     * every land is returned at most once.
+     *
+     * @return the land, or null if the reserve is empty
+     */
+    public SLand take() {
+        SLand land;
+        while ((land = reserve.poll()) != null) {
+            if (!land.isOwned()) { //预留期间可能被其他玩家购买
+                return land;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Assigns a home to the player for free, if the player owns no land and has never been assigned a home. Main thread only.
+     *
+     * @param player player
+     * @return the home, or null if the player already owns a land or has been assigned a home, the reserve is empty or the change is cancelled
+     */
+    public SLand assign(Player player) {
+        if (!assigning.add(player.getUniqueId())) {
+            return null;
+        }
+        try {
+            if (isAssigned(player.getName()) || plugin.getLands(player.getName()).length != 0) {
+                return null;
+            }
+
+            SLand land = take();
+            if (land == null) {
+                return null;
+            }
+
+            MoneySLandOwnerChangeEvent event = new MoneySLandOwnerChangeEvent(land, player, MoneySLandOwnerChangeEvent.Cause.ASSIGN);
+            Server.getInstance().getPluginManager().callEvent(event);
+            if (event.isCancelled()) {
+                reserve.offer(land); //放回预留, 之后仍可分配给其他玩家
+                return null;
+            }
+
+            land.setOwner(player.getName());
+            assigned.add(player.getName().toLowerCase()); //每位玩家只分配一次, 防止卖出后重新加入再次获得
+            dirty = true;
+            Level level = land.getLevelInstance();
+            if (level != null) {
+                level.setBlock(land.getShopBlock(), Block.get(Block.AIR));
+            }
+            return land;
+        } finally {
+            assigning.remove(player.getUniqueId());
+        }
+    }
+
+    /**
+     * Refills the reserve, should be called periodically on the main thread
+     */
+    public void refill() {
+        Level level = Server.getInstance().getLevelByName(this.level);
+        SLandGrid grid = plugin.getGrid(level);
+        if (grid == null) {
+            return;
+        }
+
+        for (Iterator<SLand> iterator = generating.iterator(); iterator.hasNext(); ) {
+            SLand land = iterator.next();
+            if (land.isOwned()) {
+                iterator.remove();
+            } else if (populate(level, land)) {
+                iterator.remove();
+                reserve.offer(land);
+            }
+        }
+
+        while (reserve.size() + generating.size() < reserveSize) {
+            long index = grid.nextUnownedIndex(cursor);
+            if (index < 0) {
+                return;
+            }
+            cursor = index + 1;
+
+            SLand land = grid.getLandBySpiralIndex(index);
+            if (land == null || land.isOwned()) {
+                continue;
+            }
+            if (populate(level, land)) {
+                reserve.offer(land);
+            } else {
+                generating.add(land);
+            }
+        }
+    }
+
+    /**
+     * 请求生成地皮所在的所有区块, 全部生成完成时返回 TRUE
+     */
+    private static boolean populate(Level level, SLand land) {
+        int minChunkX = land.getX().getMin() >> 4;
+        int maxChunkX = land.getX().getMax() >> 4;
+        int minChunkZ = land.getZ().getMin() >> 4;
+        int maxChunkZ = land.getZ().getMax() >> 4;
+        boolean done = true;
+        for (int chunkX = minChunkX; chunkX <= maxChunkX; chunkX++) {
+            for (int chunkZ = minChunkZ; chunkZ <= maxChunkZ; chunkZ++) {
+                done &= level.populateChunk(chunkX, chunkZ, true);
+            }
+        }
+        return done;
+    }
+}
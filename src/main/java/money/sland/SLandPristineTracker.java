@@ -0,0 +1,167 @@
+package money.sland;
+
+import cn.nukkit.Player;
+import cn.nukkit.Server;
+import cn.nukkit.entity.Entity;
+import cn.nukkit.level.Level;
+import cn.nukkit.level.format.FullChunk;
+import money.MoneySLand;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * 地皮世界的布局完全由生成器设置决定, 因此与生成器输出相同的区块不需要保存, 下次加载时重新生成即可 <br>
+ * The layout of a land level is fully determined by the generator settings,
+ * so chunks identical to the generator output need not be saved: they are generated again on next load.
+ * <p>
+ * 新生成的区块在填充完成后的下一 tick 被标记为未修改, 只要之后没有任何方块或实体变化, 服务器就不会写入这些区块.
+ * 在这一 tick 内被修改的区块不会被标记. <br>
+ * Newly generated chunks are marked unchanged in the tick after population, so the server never writes them
+ * until a block or entity in them changes. Chunks modified within that tick are left alone.
+ * <p>
+ * 被标记的区块在卸载前一直被记录, 区块的任何改变 (包括过道中的方块, 液体, 其他插件的修改) 都会使其不再被视为与生成器输出相同. <br>
+ * Marked chunks are remembered until unloaded. Any change of the chunk (including blocks in aisles, liquids and changes by other plugins)
+ * makes it no longer considered identical to the generator output.
+ * <p>
+ * 只能在主线程中使用 <br>
+ * Main thread only.
+ *
+ * @author Him188 @ MoneySLand Project
+ */
+public final class SLandPristineTracker {
+    private static final class Pending {
+        private final Level level;
+        private final FullChunk chunk;
+
+        private Pending(Level level, FullChunk chunk) {
+            this.level = level;
+            this.chunk = chunk;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Pending && ((Pending) o).level == level && ((Pending) o).chunk == chunk;
+        }
+
+        @Override
+        public int hashCode() {
+            return System.identityHashCode(chunk);
+        }
+    }
+
+    private final MoneySLand plugin;
+    private Set<Pending> pending = new HashSet<>();
+    //已标记且仍与生成器输出相同的区块
+    private final Set<Pending> pristine = new HashSet<>();
+    private long marked;
+
+    public SLandPristineTracker(MoneySLand plugin) {
+        this.plugin = plugin;
+    }
+
+    /**
+     * Should be called when a new chunk of a land level is populated
+     *
+     * @param level level
+     * @param chunk chunk
+     */
+    public void populated(Level level, FullChunk chunk) {
+        if (pending.isEmpty()) {
+            Server.getInstance().getScheduler().scheduleTask(plugin, this::markPending);
+        }
+        pending.add(new Pending(level, chunk));
+    }
+
+    /**
+     * Should be called when a block is changed, the chunk will not be marked
+     *
+     * @param level level
+     * @param x     x
+     * @param z     z
+     */
+    public void modified(Level level, int x, int z) {
+        if (!pending.isEmpty()) {
+            FullChunk chunk = level.getChunk(x >> 4, z >> 4);
+            if (chunk != null) {
+                pending.remove(new Pending(level, chunk));
+            }
+        }
+        if (!pristine.isEmpty()) {
+            FullChunk chunk = level.getChunk(x >> 4, z >> 4);
+            if (chunk != null) {
+                pristine.remove(new Pending(level, chunk));
+            }
+        }
+    }
+
+    private void markPending() {
+        Set<Pending> pending = this.pending;
+        this.pending = new HashSet<>();
+
+        for (Pending p : pending) {
+            if (!p.chunk.isLoaded() || level(p) != p.level || !isPristine(p.chunk)) {
+                continue;
+            }
+            p.chunk.setChanged(false);
+            pristine.add(p);
+            marked++;
+        }
+    }
+
+    /**
+     * Returns if the chunk is still identical to the generator output, which means it needs no saving.
+     * A chunk is identical only if it was marked after population and nothing in it has changed since.
+     *
+     * @param level level
+     * @param chunk chunk
+     * @return TRUE if identical
+     */
+    public boolean isPristine(Level level, FullChunk chunk) {
+        Pending p = new Pending(level, chunk);
+        if (!pristine.contains(p)) {
+            return false;
+        }
+        //区块中任何方块或实体改变都会设置 changed
+        if (chunk.hasChanged() || !isPristine(chunk)) {
+            pristine.remove(p);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Should be called when a chunk is unloaded
+     *
+     * @param level level
+     * @param chunk chunk
+     */
+    public void unloaded(Level level, FullChunk chunk) {
+        pristine.remove(new Pending(level, chunk));
+    }
+
+    private static Level level(Pending p) {
+        return Server.getInstance().getLevel(p.level.getId());
+    }
+
+    private static boolean isPristine(FullChunk chunk) {
+        if (!chunk.getBlockEntities().isEmpty()) {
+            return false;
+        }
+        for (Entity entity : chunk.getEntities().values()) {
+            if (!(entity instanceof Player)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Gets the count of chunks marked as pristine since the server started
+     *
+     * @return count
+     */
+    public long getMarked() {
+        return marked;
+    }
+}
@@ -0,0 +1,257 @@
+package money.sland;
+
+import cn.nukkit.Player;
+import cn.nukkit.Server;
+import cn.nukkit.block.Block;
+import cn.nukkit.blockentity.BlockEntity;
+import cn.nukkit.entity.Entity;
+import cn.nukkit.level.Level;
+import money.MoneySLand;
+
+import java.util.*;
+
+/**
+ * 采样统计每块地皮造成的服务器负载 <br>
+ * Sampling profiler which attributes server load to lands.
+ * <p>
+ * 每次采样时按 {@link SLandGrid} 将已加载的实体和方块实体计入所在的地皮, 方块更新事件每 N 次记录一次.
+ * 数据以 15 秒为一段保存 15 分钟, 用于查询最近一段时间内负载最高的地皮.
+ * 当采样耗时超过 tick 时间的 1% 时自动降低采样频率. <br>
+ * Every sample attributes loaded entities and block entities to their lands through {@link SLandGrid},
+ * and one of every N block update events is recorded.
+ * Data is kept in 15-second buckets for 15 minutes, and is used to find the most expensive lands of a recent window.
+ * The sampling rate drops automatically when sampling takes more than 1% of tick time.
+ * <p>
+ * 只能在主线程中使用 <br>
+ * Main thread only.
+ *
+ * @author Him188 @ MoneySLand Project
+ */
+public final class SLandProfiler {
+    public static final int ENTITY = 0;
+    public static final int BLOCK_ENTITY = 1;
+    public static final int BLOCK_UPDATE = 2;
+
+    private static final long BUCKET_MILLIS = 15 * 1000;
+    private static final int BUCKETS = 60;
+
+    private static final double MAX_OVERHEAD = 0.01;
+    private static final int MAX_SKIP = 63;
+    private static final long NANOS_PER_TICK = 50 * 1000 * 1000;
+
+    private static final class Bucket {
+        private final long start;
+        private final Map<Integer, long[]> costs = new HashMap<>();
+
+        private Bucket(long start) {
+            this.start = start;
+        }
+
+        private void add(int land, int type, long amount) {
+            long[] cost = costs.get(land);
+            if (cost == null) {
+                costs.put(land, cost = new long[3]);
+            }
+            cost[type] += amount;
+        }
+    }
+
+    /**
+     * 一块地皮在一段时间内的负载 <br>
+     * Load of a land in a window
+     */
+    public static final class Cost {
+        private final int land;
+        private final long[] costs;
+        private final long ticks;
+
+        private Cost(int land, long[] costs, long ticks) {
+            this.land = land;
+            this.costs = costs;
+            this.ticks = ticks;
+        }
+
+        public int getLand() {
+            return land;
+        }
+
+        /**
+         * Gets the total of the window
+         *
+         * @param type {@link #ENTITY}, {@link #BLOCK_ENTITY} or {@link #BLOCK_UPDATE}
+         * @return entity ticks, block entity ticks or block updates
+         */
+        public long getTotal(int type) {
+            return costs[type];
+        }
+
+        /**
+         * Gets the average of each tick in the window
+         *
+         * @param type {@link #ENTITY}, {@link #BLOCK_ENTITY} or {@link #BLOCK_UPDATE}
+         * @return average per tick
+         */
+        public double getPerTick(int type) {
+            return (double) costs[type] / ticks;
+        }
+
+        /**
+         * Gets the score used for sorting, which is the sum of all totals
+         *
+         * @return the score
+         */
+        public long getScore() {
+            return costs[ENTITY] + costs[BLOCK_ENTITY] + costs[BLOCK_UPDATE];
+        }
+    }
+
+    private final MoneySLand plugin;
+    private final int eventSampleRate;
+
+    private final ArrayDeque<Bucket> buckets = new ArrayDeque<>();
+    private Bucket current = new Bucket(System.currentTimeMillis());
+
+    private int eventCounter;
+
+    private int lastTick = -1;
+    private int skip;
+    private int skipped;
+    private double overhead;
+
+    /**
+     * @param plugin          plugin
+     * @param eventSampleRate records one of every {@code eventSampleRate} block updates
+     */
+    public SLandProfiler(MoneySLand plugin, int eventSampleRate) {
+        this.plugin = plugin;
+        this.eventSampleRate = Math.max(1, eventSampleRate);
+        buckets.addFirst(current);
+    }
+
+    /**
+     * Records a block update
+     *
+     * @param block the updated block
+     */
+    public void recordBlockUpdate(Block block) {
+        if (++eventCounter < eventSampleRate) {
+            return;
+        }
+        eventCounter = 0;
+
+        SLandGrid grid = plugin.getGrid(block.getLevel());
+        if (grid != null) {
+            int value = grid.getValue(block.getFloorX(), block.getFloorZ());
+            if (value >= 0) {
+                current.add(value & SLandGrid.ID_MASK, BLOCK_UPDATE, eventSampleRate);
+            }
+        }
+    }
+
+    /**
+     * Samples loaded entities and block entities, should be called periodically
+     */
+    public void sample() {
+        if (skipped++ < skip) {
+            return;
+        }
+        skipped = 0;
+
+        long start = System.nanoTime();
+        int tick = Server.getInstance().getTick();
+        int ticks = lastTick == -1 ? 1 : tick - lastTick; //距离上次采样的 tick 数, 每个实体在这段时间内都被计算
+        lastTick = tick;
+
+        long now = System.currentTimeMillis();
+        if (now - current.start >= BUCKET_MILLIS) {
+            buckets.addFirst(current = new Bucket(now));
+            while (buckets.size() > BUCKETS) {
+                buckets.removeLast();
+            }
+        }
+
+        for (Level level : Server.getInstance().getLevels().values()) {
+            SLandGrid grid = plugin.getGrid(level);
+            if (grid == null) {
+                continue;
+            }
+
+            for (Entity entity : level.getEntities()) {
+                if (entity instanceof Player) {
+                    continue;
+                }
+                int value = grid.getValue(entity.getFloorX(), entity.getFloorZ());
+                if (value >= 0) {
+                    current.add(value & SLandGrid.ID_MASK, ENTITY, ticks);
+                }
+            }
+
+            for (BlockEntity blockEntity : level.getBlockEntities().values()) {
+                int value = grid.getValue(blockEntity.getFloorX(), blockEntity.getFloorZ());
+                if (value >= 0) {
+                    current.add(value & SLandGrid.ID_MASK, BLOCK_ENTITY, ticks);
+                }
+            }
+        }
+
+        //采样耗时占这段时间的比例, 过高时跳过之后的采样
+        overhead = (double) (System.nanoTime() - start) / (Math.max(1, ticks) * NANOS_PER_TICK);
+        if (overhead > MAX_OVERHEAD) {
+            skip = Math.min(MAX_SKIP, skip * 2 + 1);
+        } else if (overhead < MAX_OVERHEAD / 4 && skip > 0) {
+            skip /= 2;
+        }
+    }
+
+    /**
+     * Gets the share of tick time taken by the last sample
+     *
+     * @return overhead in range 0-1
+     */
+    public double getOverhead() {
+        return overhead;
+    }
+
+    /**
+     * Gets the most expensive lands in the recent window
+     *
+     * @param windowMillis window in milliseconds, at most 15 minutes
+     * @param count        count of lands
+     * @return lands sorted by score from high to low
+     */
+    public List<Cost> top(long windowMillis, int count) {
+        long now = System.currentTimeMillis();
+        long from = now - windowMillis;
+
+        Map<Integer, long[]> totals = new HashMap<>();
+        long oldest = now;
+        for (Bucket bucket : buckets) {
+            if (bucket.start < from && bucket != current) {
+                break;
+            }
+            oldest = bucket.start;
+            bucket.costs.forEach((land, cost) -> {
+                long[] total = totals.get(land);
+                if (total == null) {
+                    totals.put(land, total = new long[3]);
+                }
+                for (int i = 0; i < 3; i++) {
+                    total[i] += cost[i];
+                }
+            });
+        }
+
+        long ticks = Math.max(1, (now - oldest) / 50);
+        PriorityQueue<Cost> queue = new PriorityQueue<>(count + 1, Comparator.comparingLong(Cost::getScore));
+        totals.forEach((land, total) -> {
+            queue.add(new Cost(land, total, ticks));
+            if (queue.size() > count) {
+                queue.poll();
+            }
+        });
+
+        List<Cost> result = new ArrayList<>(queue);
+        result.sort(Comparator.comparingLong(Cost::getScore).reversed());
+        return result;
+    }
+}
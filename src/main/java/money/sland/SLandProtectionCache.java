@@ -0,0 +1,193 @@
+package money.sland;
+
+import cn.nukkit.Player;
+import money.utils.ActionType;
+import money.utils.SLandPermissions;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * 玩家权限判定缓存. 每名玩家拥有一个直接映射的缓存表, 以 (地皮ID, 操作类型) 为键 <br>
+ * Per-player cache of protection decisions, keyed by (land id, action type).
+ * <p>
+ * 缓存会在以下情况失效: 玩家进出服务器或切换世界, 地皮主人或共享者被修改, 以及定时刷新(权限插件修改权限时不会触发任何事件). <br>
+ * Entries are invalidated when the player joins, quits or changes level, when the owner or invitees of a land changes,
+ * and periodically, because Nukkit fires no event on permission recalculation.
+ * <p>
+ * 只能在主线程中使用 <br>
+ * Main thread only.
+ *
+ * @author Him188 @ MoneySLand Project
+ */
+public final class SLandProtectionCache {
+    private static final int SIZE = 64; //必须是 2 的幂
+    private static final int MASK = SIZE - 1;
+
+    private static final long EMPTY = 0;
+    private static final long ALLOWED = 1;
+    private static final long DENIED = 2;
+
+    private static final int ACTIONS = 4; //ActionType.values().length 向上取 2 的幂
+
+    //每个缓存表的最后两格用于存储全局权限
+    private static final int SLOT_BASE = SIZE;
+    private static final int SLOT_AISLE = SIZE + 1;
+
+    private final Map<UUID, long[]> tables = new HashMap<>();
+
+    private Player lastPlayer;
+    private long[] lastTable;
+
+    private long hits;
+    private long misses;
+
+    private long[] table(Player player) {
+        if (player == lastPlayer) {
+            return lastTable;
+        }
+
+        long[] table = tables.get(player.getUniqueId());
+        if (table == null) {
+            table = new long[SIZE + 2];
+            tables.put(player.getUniqueId(), table);
+        }
+        lastPlayer = player;
+        return lastTable = table;
+    }
+
+    private static long key(int landId, ActionType type) {
+        return ((long) landId * ACTIONS + type.ordinal() + 1) << 2;
+    }
+
+    /**
+     * Tests if the player can do {@code type} on {@code land}, using the cached decision when possible
+     *
+     * @param player player
+     * @param land   land
+     * @param type   action type
+     * @return TRUE on allowed, otherwise FALSE
+     * @see SLand#testPermission(Player, ActionType)
+     */
+    public boolean test(Player player, SLand land, ActionType type) {
+        long[] table = table(player);
+        long key = key(land.getId(), type);
+        int index = (int) (key >>> 2) & MASK;
+
+        long value = table[index];
+        if ((value & ~3L) == key) {
+            hits++;
+            return value == (key | ALLOWED);
+        }
+
+        misses++;
+        boolean allowed = player.hasPermission(SLandPermissions.PERMISSION_MODIFY) || land.testPermission(player, type);
+        table[index] = key | (allowed ? ALLOWED : DENIED);
+        return allowed;
+    }
+
+    /**
+     * Tests if the player has {@link SLandPermissions#PERMISSION_BASE}
+     *
+     * @param player player
+     * @return TRUE if the player has the permission
+     */
+    public boolean hasBasePermission(Player player) {
+        return testGlobal(player, SLOT_BASE, SLandPermissions.PERMISSION_BASE);
+    }
+
+    /**
+     * Tests if the player has {@link SLandPermissions#PERMISSION_INTERACT_AISLE}
+     *
+     * @param player player
+     * @return TRUE if the player has the permission
+     */
+    public boolean canInteractAisle(Player player) {
+        return testGlobal(player, SLOT_AISLE, SLandPermissions.PERMISSION_INTERACT_AISLE);
+    }
+
+    private boolean testGlobal(Player player, int slot, String permission) {
+        long[] table = table(player);
+        long value = table[slot];
+        if (value != EMPTY) {
+            hits++;
+            return value == ALLOWED;
+        }
+
+        misses++;
+        boolean allowed = player.hasPermission(permission);
+        table[slot] = allowed ? ALLOWED : DENIED;
+        return allowed;
+    }
+
+    /**
+     * Invalidates all decisions of the player
+     *
+     * @param player player
+     */
+    public void invalidate(Player player) {
+        long[] table = tables.get(player.getUniqueId());
+        if (table != null) {
+            Arrays.fill(table, EMPTY);
+        }
+    }
+
+    /**
+     * Invalidates all decisions about the land, should be called when the owner or invitees changes
+     *
+     * @param land land
+     */
+    public void invalidate(SLand land) {
+        for (long[] table : tables.values()) {
+            for (ActionType type : ActionType.values()) {
+                long key = key(land.getId(), type);
+                int index = (int) (key >>> 2) & MASK;
+                if ((table[index] & ~3L) == key) {
+                    table[index] = EMPTY;
+                }
+            }
+        }
+    }
+
+    /**
+     * Invalidates all decisions of all players
+     */
+    public void invalidateAll() {
+        for (long[] table : tables.values()) {
+            Arrays.fill(table, EMPTY);
+        }
+    }
+
+    /**
+     * Removes the player from the cache, should be called when the player quits
+     *
+     * @param player player
+     */
+    public void remove(Player player) {
+        tables.remove(player.getUniqueId());
+        if (player == lastPlayer) {
+            lastPlayer = null;
+            lastTable = null;
+        }
+    }
+
+    public long getHits() {
+        return hits;
+    }
+
+    public long getMisses() {
+        return misses;
+    }
+
+    /**
+     * Gets the hit rate since the server started
+     *
+     * @return hit rate in range 0-1
+     */
+    public double getHitRate() {
+        long total = hits + misses;
+        return total == 0 ? 0 : (double) hits / total;
+    }
+}
@@ -0,0 +1,165 @@
+package money.sland;
+
+import java.util.Comparator;
+
+/**
+ * 地皮查询条件, 见 {@link money.MoneySLandAPI#queryLands(SLandQuery)} <br>
+ * Conditions of a land query, see {@link money.MoneySLandAPI#queryLands(SLandQuery)}.
+ * <p>
+ * 只查询已保存的地皮, 未被购买且未被修改的地皮不保存, 因此不会出现在结果中. <br>
+ * Only stored lands are queried. Unowned and unmodified lands are not stored, so they never appear in the results.
+ *
+ * @author Him188 @ MoneySLand Project
+ */
+public final class SLandQuery {
+    public enum Sort {
+        ID,
+        TIME,
+        SIZE,
+        OWNER,
+    }
+
+    private String ownerPrefix;
+    private String level;
+    private Boolean owned;
+    private int minSquare = 0;
+    private int maxSquare = Integer.MAX_VALUE;
+    private long after = Long.MIN_VALUE;
+    private long before = Long.MAX_VALUE;
+    private Sort sort;
+    private boolean descending;
+
+    /**
+     * Only lands whose owner's name starts with the prefix, case-insensitive. Implies owned lands
+     *
+     * @param ownerPrefix prefix, null for any
+     * @return this
+     */
+    public SLandQuery ownerPrefix(String ownerPrefix) {
+        this.ownerPrefix = ownerPrefix == null ? null : ownerPrefix.toLowerCase();
+        return this;
+    }
+
+    /**
+     * Only lands in the level
+     *
+     * @param level level name, null for any
+     * @return this
+     */
+    public SLandQuery level(String level) {
+        this.level = level;
+        return this;
+    }
+
+    /**
+     * Only owned or unowned lands
+     *
+     * @param owned TRUE for owned lands, FALSE for unowned lands, null for both
+     * @return this
+     */
+    public SLandQuery owned(Boolean owned) {
+        this.owned = owned;
+        return this;
+    }
+
+    /**
+     * Only lands whose square is in the range
+     *
+     * @param min min square, inclusive
+     * @param max max square, inclusive
+     * @return this
+     */
+    public SLandQuery square(int min, int max) {
+        this.minSquare = min;
+        this.maxSquare = max;
+        return this;
+    }
+
+    /**
+     * Only lands generated in the range of time, see {@link SLand#getTime()}
+     *
+     * @param after  min time in milliseconds, inclusive
+     * @param before max time in milliseconds, exclusive
+     * @return this
+     */
+    public SLandQuery time(long after, long before) {
+        this.after = after;
+        this.before = before;
+        return this;
+    }
+
+    /**
+     * Sorts the results, ties are sorted by id
+     *
+     * @param sort       the key, null for no order
+     * @param descending TRUE for descending
+     * @return this
+     */
+    public SLandQuery sort(Sort sort, boolean descending) {
+        this.sort = sort;
+        this.descending = descending;
+        return this;
+    }
+
+    public String getOwnerPrefix() {
+        return ownerPrefix;
+    }
+
+    public String getLevel() {
+        return level;
+    }
+
+    public Boolean getOwned() {
+        return owned;
+    }
+
+    /**
+     * Tests if the land matches all conditions
+     *
+     * @param land land
+     * @return TRUE if matches
+     */
+    public boolean test(SLand land) {
+        if (owned != null && land.isOwned() != owned) {
+            return false;
+        }
+        if (ownerPrefix != null && (!land.isOwned() || !land.getOwner().toLowerCase().startsWith(ownerPrefix))) {
+            return false;
+        }
+        if (level != null && !land.getLevel().equalsIgnoreCase(level)) {
+            return false;
+        }
+        int square = land.getSquare();
+        return square >= minSquare && square <= maxSquare && land.getTime() >= after && land.getTime() < before;
+    }
+
+    /**
+     * Gets the order of results
+     *
+     * @return the comparator, or null if the results are not sorted
+     */
+    public Comparator<SLand> comparator() {
+        if (sort == null) {
+            return null;
+        }
+        Comparator<SLand> comparator;
+        switch (sort) {
+            case TIME:
+                comparator = Comparator.comparingLong(SLand::getTime);
+                break;
+            case SIZE:
+                comparator = Comparator.comparingInt(SLand::getSquare);
+                break;
+            case OWNER:
+                comparator = Comparator.comparing(land -> land.isOwned() ? land.getOwner().toLowerCase() : "");
+                break;
+            default:
+                comparator = Comparator.comparingInt(SLand::getId);
+                break;
+        }
+        if (descending) {
+            comparator = comparator.reversed();
+        }
+        return comparator.thenComparingInt(SLand::getId);
+    }
+}
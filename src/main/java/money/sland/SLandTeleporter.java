@@ -0,0 +1,245 @@
+package money.sland;
+
+import cn.nukkit.Player;
+import cn.nukkit.Server;
+import cn.nukkit.level.Level;
+import cn.nukkit.level.Position;
+import cn.nukkit.math.Vector3;
+import money.MoneySLand;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * 传送到地皮前预加载目标区块. 目标区块由服务器的异步线程池生成, 从磁盘读取的区块每 tick 限量加载,
+ * 全部就绪或超时后才传送, 避免传送时在主线程中集中加载或生成区块 <br>
+ * Preloads the destination chunks before teleporting to a land. Missing chunks are generated by the async worker pool of the server,
+ * and chunks read from disk are loaded at a bounded rate per tick. The player is teleported once all chunks are ready or the timeout expires,
+ * so a teleport never loads or generates a burst of chunks on the main thread.
+ * <p>
+ * 最常被传送到的地皮的区块保持加载. <br>
+ * Chunks of the most visited lands are kept loaded.
+ * <p>
+ * 只能在主线程中使用 <br>
+ * Main thread only.
+ *
+ * @author Him188 @ MoneySLand Project
+ */
+public final class SLandTeleporter {
+    //每 tick 最多同步加载的区块数量
+    private static final int CHUNKS_PER_TICK = 8;
+    //目标区块周围预加载的区块半径
+    private static final int PRELOAD_RADIUS = 1;
+    //重新统计热门地皮的周期, 每次统计后访问次数减半
+    private static final int WARM_PERIOD_TICKS = 20 * 60;
+    //热门地皮至少需要的访问次数
+    private static final int WARM_MIN_VISITS = 2;
+
+    private static final class Pending {
+        private final Player player;
+        private final Position target;
+        private final Runnable callback;
+        private final List<Long> chunks;
+        private final int deadline;
+
+        private Pending(Player player, Position target, Runnable callback, List<Long> chunks, int deadline) {
+            this.player = player;
+            this.target = target;
+            this.callback = callback;
+            this.chunks = chunks;
+            this.deadline = deadline;
+        }
+    }
+
+    private final int timeoutTicks;
+    private final int maxWarmLands;
+
+    private final Map<UUID, Pending> pending = new LinkedHashMap<>();
+    private final Map<Integer, Integer> visits = new HashMap<>();
+    private Map<String, Set<Long>> warmChunks = new HashMap<>();
+    private int tick;
+
+    /**
+     * @param timeoutTicks max ticks to wait for chunks, 0 to teleport without preloading
+     * @param maxWarmLands max count of lands whose chunks are kept loaded, 0 to disable
+     */
+    public SLandTeleporter(int timeoutTicks, int maxWarmLands) {
+        this.timeoutTicks = timeoutTicks;
+        this.maxWarmLands = maxWarmLands;
+    }
+
+    /**
+     * Teleports the player to a position in the land after its chunks are ready.
+     * A pending teleport of the player is replaced.
+     *
+     * @param player   player
+     * @param land     land
+     * @param target   position in the level of the land
+     * @param callback called after teleporting
+     * @return FALSE if the level of the land is not loaded
+     */
+    public boolean teleport(Player player, SLand land, Vector3 target, Runnable callback) {
+        Level level = land.getLevelInstance();
+        if (level == null) {
+            return false;
+        }
+        visits.merge(land.getId(), 1, Integer::sum);
+        pending.remove(player.getUniqueId());
+
+        Position position = Position.fromObject(target, level);
+        List<Long> chunks = new ArrayList<>();
+        int chunkX = target.getFloorX() >> 4;
+        int chunkZ = target.getFloorZ() >> 4;
+        for (int x = chunkX - PRELOAD_RADIUS; x <= chunkX + PRELOAD_RADIUS; x++) {
+            for (int z = chunkZ - PRELOAD_RADIUS; z <= chunkZ + PRELOAD_RADIUS; z++) {
+                if (!level.isChunkLoaded(x, z)) {
+                    chunks.add(Level.chunkHash(x, z));
+                }
+            }
+        }
+
+        if (chunks.isEmpty() || timeoutTicks <= 0) {
+            player.teleport(position);
+            callback.run();
+        } else {
+            pending.put(player.getUniqueId(), new Pending(player, position, callback, chunks, tick + timeoutTicks));
+        }
+        return true;
+    }
+
+    /**
+     * Should be called in every tick
+     */
+    public void tick() {
+        tick++;
+
+        int budget = CHUNKS_PER_TICK;
+        for (Iterator<Pending> iterator = pending.values().iterator(); iterator.hasNext(); ) {
+            Pending p = iterator.next();
+            Level level = p.target.getLevel();
+            if (!p.player.isOnline() || Server.getInstance().getLevel(level.getId()) != level) {
+                iterator.remove();
+                continue;
+            }
+
+            for (Iterator<Long> chunks = p.chunks.iterator(); chunks.hasNext(); ) {
+                long hash = chunks.next();
+                int x = Level.getHashX(hash);
+                int z = Level.getHashZ(hash);
+                //populateChunk 会同步加载周围 3x3 的区块, 全部计入预算. 预算不足时留到下一 tick, 除非本 tick 还未加载任何区块
+                int cost = countUnloaded(level, x, z);
+                if (cost > budget && budget < CHUNKS_PER_TICK) {
+                    break;
+                }
+                budget -= cost;
+                if (level.populateChunk(x, z, true)) {
+                    chunks.remove();
+                }
+            }
+
+            if (p.chunks.isEmpty() || tick >= p.deadline) { //超时后直接传送, 剩余的区块由服务器同步加载
+                iterator.remove();
+                p.player.teleport(p.target);
+                p.callback.run();
+            }
+        }
+
+        if (maxWarmLands > 0) {
+            if (tick % WARM_PERIOD_TICKS == 0) {
+                updateWarmChunks();
+            }
+            if (tick % 20 == 0) {
+                keepWarm();
+            }
+        }
+    }
+
+    /**
+     * 统计以该区块为中心的 3x3 区块中未加载的数量
+     */
+    private static int countUnloaded(Level level, int chunkX, int chunkZ) {
+        int count = 0;
+        for (int x = chunkX - 1; x <= chunkX + 1; x++) {
+            for (int z = chunkZ - 1; z <= chunkZ + 1; z++) {
+                if (!level.isChunkLoaded(x, z)) {
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * 按访问次数选出热门地皮, 然后将所有访问次数减半
+     */
+    private void updateWarmChunks() {
+        List<Map.Entry<Integer, Integer>> entries = new ArrayList<>(visits.entrySet());
+        entries.sort((a, b) -> Integer.compare(b.getValue(), a.getValue()));
+
+        Map<String, Set<Long>> warmChunks = new HashMap<>();
+        for (int i = 0; i < entries.size() && i < maxWarmLands && entries.get(i).getValue() >= WARM_MIN_VISITS; i++) {
+            SLand land = MoneySLand.getInstance().getLand(entries.get(i).getKey());
+            if (land == null) {
+                continue;
+            }
+            Set<Long> chunks = warmChunks.computeIfAbsent(land.getLevel(), k -> new HashSet<>());
+            int minChunkX = land.getX().getMin() >> 4;
+            int maxChunkX = land.getX().getMax() >> 4;
+            int minChunkZ = land.getZ().getMin() >> 4;
+            int maxChunkZ = land.getZ().getMax() >> 4;
+            for (int x = minChunkX; x <= maxChunkX; x++) {
+                for (int z = minChunkZ; z <= maxChunkZ; z++) {
+                    chunks.add(Level.chunkHash(x, z));
+                }
+            }
+        }
+        this.warmChunks = warmChunks;
+
+        visits.replaceAll((id, count) -> count / 2);
+        visits.values().removeIf(count -> count == 0);
+    }
+
+    /**
+     * 取消热门区块的卸载请求, 使它们保持加载. 不会加载已卸载的区块
+     */
+    private void keepWarm() {
+        warmChunks.forEach((name, chunks) -> {
+            Level level = Server.getInstance().getLevelByName(name);
+            if (level == null) {
+                return;
+            }
+            for (long hash : chunks) {
+                level.cancelUnloadChunkRequest(hash);
+            }
+        });
+    }
+
+    /**
+     * Returns if the chunk belongs to one of the most visited lands and should stay loaded
+     *
+     * @param level  level
+     * @param chunkX chunk x
+     * @param chunkZ chunk z
+     * @return TRUE if the chunk should stay loaded
+     */
+    public boolean isWarm(Level level, int chunkX, int chunkZ) {
+        Set<Long> chunks = warmChunks.get(level.getFolderName());
+        return chunks != null && chunks.contains(Level.chunkHash(chunkX, chunkZ));
+    }
+
+    /**
+     * Gets the count of teleports waiting for chunks
+     *
+     * @return the count
+     */
+    public int getPending() {
+        return pending.size();
+    }
+}
@@ -0,0 +1,173 @@
+package money.sland;
+
+import cn.nukkit.Player;
+import cn.nukkit.Server;
+import cn.nukkit.level.Level;
+import cn.nukkit.level.Position;
+import money.MoneySLand;
+import money.event.MoneySLandEnterEvent;
+import money.event.MoneySLandLeaveEvent;
+import money.generator.SLandLayout;
+import money.utils.SLandPermissions;
+import money.utils.SLandUtils;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * 记录每名玩家所在的网格, 只有当玩家进入另一个网格时才查询地皮, 并调用 {@link MoneySLandEnterEvent} 和 {@link MoneySLandLeaveEvent} <br>
+ * Tracks the grid cell of every player. Lands are resolved only when a player moves into another cell,
+ * then {@link MoneySLandEnterEvent} and {@link MoneySLandLeaveEvent} are called.
+ * <p>
+ * 进入地皮时检查禁止名单和私有状态 (按列判断, 飞行同样无法进入) <br>
+ * The deny list and the private flag are checked when entering a land. Columns are checked, so flying does not bypass them.
+ * <p>
+ * 只能在主线程中使用 <br>
+ * Main thread only.
+ *
+ * @author Him188 @ MoneySLand Project
+ */
+public final class SLandTracker {
+    private static final long NO_CELL = Long.MIN_VALUE;
+    private static final int NO_LAND = -1;
+
+    //被拒绝时提示消息的最小间隔
+    private static final long DENIED_MESSAGE_INTERVAL = 1000;
+
+    private static final class Track {
+        private final Player player;
+        private final long nameHash;
+        private long deniedMessageTime;
+
+        private Level level;
+        private long cell = NO_CELL;
+        private int land = NO_LAND;
+
+        private Track(Player player) {
+            this.player = player;
+            this.nameHash = SLandUtils.hashName(player.getName());
+        }
+    }
+
+    private final MoneySLand plugin;
+    private final Map<UUID, Track> tracks = new HashMap<>();
+
+    public SLandTracker(MoneySLand plugin) {
+        this.plugin = plugin;
+    }
+
+    /**
+     * Updates the cell of the player, should be called when the player moves to another block or teleports
+     *
+     * @param player player
+     * @param to     the new position
+     * @return FALSE if the player is not allowed to enter the land ({@link MoneySLandEnterEvent} is cancelled)
+     */
+    public boolean move(Player player, Position to) {
+        Track track = tracks.get(player.getUniqueId());
+        if (track == null) {
+            tracks.put(player.getUniqueId(), track = new Track(player));
+        }
+
+        Level level = to.getLevel();
+        SLandGrid grid = plugin.getGrid(level);
+        int x = to.getFloorX();
+        int z = to.getFloorZ();
+
+        long cell = NO_CELL;
+        if (grid != null) {
+            SLandLayout layout = grid.getLayout();
+            if (layout.type(x, z) != SLandLayout.AISLE) {
+                cell = layout.cellKeyAt(x, z);
+            }
+        }
+        if (level == track.level && cell == track.cell) {
+            return true;
+        }
+
+        //进入了另一个网格
+        SLand land = cell == NO_CELL ? null : grid.getLand(x, z);
+        int landId = land == null ? NO_LAND : land.getId();
+        if (landId != track.land) {
+            SLand previous = track.land == NO_LAND ? null : plugin.getLand(track.land);
+            if (land != null) {
+                if (!canEnter(track, land)) {
+                    deny(track, land, grid.getLand(player.getFloorX(), player.getFloorZ()) == land && player.getLevel() == level);
+                    return false;
+                }
+
+                MoneySLandEnterEvent event = new MoneySLandEnterEvent(land, player, previous);
+                Server.getInstance().getPluginManager().callEvent(event);
+                if (event.isCancelled()) {
+                    return false;
+                }
+            }
+            if (previous != null) {
+                Server.getInstance().getPluginManager().callEvent(new MoneySLandLeaveEvent(previous, player, land));
+            }
+        }
+
+        track.level = level;
+        track.cell = cell;
+        track.land = landId;
+        return true;
+    }
+
+    private static boolean canEnter(Track track, SLand land) {
+        return land.canEnter(track.nameHash) || track.player.hasPermission(SLandPermissions.PERMISSION_ENTER);
+    }
+
+    private void deny(Track track, SLand land, boolean eject) {
+        long now = System.currentTimeMillis();
+        if (eject || now - track.deniedMessageTime >= DENIED_MESSAGE_INTERVAL) {
+            track.deniedMessageTime = now;
+            track.player.sendMessage(plugin.translateMessage("land.denied", "id", land.getId()));
+        }
+
+        if (eject) {
+            //玩家已经在地皮中(加入服务器, 或被加入禁止名单), 移动事件被取消后会回到原位, 因此在下一刻传送
+            Player player = track.player;
+            Level level = player.getLevel();
+            Server.getInstance().getScheduler().scheduleTask(plugin, () -> {
+                if (player.isOnline() && player.getLevel() == level) {
+                    player.teleport(level.getSafeSpawn(level.getSpawnLocation()));
+                }
+            });
+        }
+    }
+
+    /**
+     * Ejects the players in the land who are no longer allowed to enter,
+     * should be called when the deny list, the private flag or the members of the land changes
+     *
+     * @param land land
+     */
+    public void recheck(SLand land) {
+        for (Track track : tracks.values()) {
+            if (track.land == land.getId() && !canEnter(track, land)) {
+                deny(track, land, true);
+            }
+        }
+    }
+
+    /**
+     * Gets the id of the land the player is in
+     *
+     * @param player player
+     * @return land id, or -1 if the player is not in any land
+     */
+    public int getLandId(Player player) {
+        Track track = tracks.get(player.getUniqueId());
+        return track == null ? NO_LAND : track.land;
+    }
+
+    /**
+     * Removes the player, should be called when the player quits
+     *
+     * @param player player
+     */
+    public void remove(Player player) {
+        tracks.remove(player.getUniqueId());
+    }
+}
@@ -0,0 +1,104 @@
+package money.tasks;
+
+import cn.nukkit.Server;
+import cn.nukkit.entity.Entity;
+import cn.nukkit.entity.EntityCreature;
+import cn.nukkit.entity.item.EntityItem;
+import cn.nukkit.entity.item.EntityXPOrb;
+import cn.nukkit.level.Level;
+import cn.nukkit.level.format.FullChunk;
+import cn.nukkit.scheduler.PluginTask;
+import money.MoneySLand;
+import money.generator.SLandLayout;
+import money.sland.SLandGrid;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+
+/**
+ * 分批清理过道中的掉落物, 经验球和没有命名的生物. 每 tick 只检查有限数量的区块 <br>
+ * Removes dropped items, experience orbs and unnamed creatures in aisles incrementally.
+ * Only a limited count of chunks is checked in every tick.
+ *
+ * @author Him188 @ MoneySLand Project
+ */
+public class AisleSweepTask extends PluginTask<MoneySLand> {
+	private static final class Entry {
+		private final Level level;
+		private final SLandLayout layout;
+		private final int chunkX;
+		private final int chunkZ;
+
+		private Entry(Level level, SLandLayout layout, int chunkX, int chunkZ) {
+			this.level = level;
+			this.layout = layout;
+			this.chunkX = chunkX;
+			this.chunkZ = chunkZ;
+		}
+	}
+
+	private final int period;
+	private final int chunksPerTick;
+
+	private final ArrayDeque<Entry> queue = new ArrayDeque<>();
+	private int nextPass;
+
+	/**
+	 * @param owner         plugin
+	 * @param period        ticks between two passes
+	 * @param chunksPerTick count of chunks checked in every tick
+	 */
+	public AisleSweepTask(MoneySLand owner, int period, int chunksPerTick) {
+		super(owner);
+		this.period = period;
+		this.chunksPerTick = Math.max(1, chunksPerTick);
+	}
+
+	@Override
+	public void onRun(int currentTick) {
+		if (queue.isEmpty()) {
+			if (currentTick < nextPass) {
+				return;
+			}
+			nextPass = currentTick + period;
+			fill();
+		}
+
+		for (int i = 0; i < chunksPerTick && !queue.isEmpty(); i++) {
+			Entry entry = queue.poll();
+			if (Server.getInstance().getLevel(entry.level.getId()) != entry.level || !entry.level.isChunkLoaded(entry.chunkX, entry.chunkZ)) {
+				continue;
+			}
+
+			//关闭实体时会将其从区块中移除, 因此遍历副本
+			FullChunk chunk = entry.level.getChunk(entry.chunkX, entry.chunkZ);
+			for (Entity entity : new ArrayList<>(chunk.getEntities().values())) {
+				if (isStray(entity) && entry.layout.type(entity.getFloorX(), entity.getFloorZ()) == SLandLayout.AISLE) {
+					entity.close();
+				}
+			}
+		}
+	}
+
+	private void fill() {
+		for (Level level : Server.getInstance().getLevels().values()) {
+			SLandGrid grid = this.getOwner().getGrid(level);
+			if (grid == null) {
+				continue;
+			}
+
+			SLandLayout layout = grid.getLayout();
+			for (FullChunk chunk : level.getChunks().values()) {
+				if (layout.chunkHasAisle(chunk.getX(), chunk.getZ())) {
+					queue.add(new Entry(level, layout, chunk.getX(), chunk.getZ()));
+				}
+			}
+		}
+	}
+
+	private static boolean isStray(Entity entity) {
+		return entity instanceof EntityItem
+				|| entity instanceof EntityXPOrb
+				|| (entity instanceof EntityCreature && !entity.hasCustomName());
+	}
+}
@@ -0,0 +1,71 @@
+package money.tasks;
+
+import cn.nukkit.Server;
+import cn.nukkit.level.Level;
+import cn.nukkit.level.format.FullChunk;
+import cn.nukkit.scheduler.PluginTask;
+import money.MoneySLand;
+import money.generator.SLandLayout;
+import money.sland.SLand;
+import money.sland.SLandGrid;
+import money.sland.SLandPristineTracker;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 卸载只包含未被购买且未被修改的地皮(及过道)的区块. 只有确定仍与生成器输出相同的区块 (见 {@link SLandPristineTracker}) 卸载时不保存 <br>
+ * Unloads chunks covered only by unowned, unmodified lands (and aisles) when no player is nearby.
+ * Only chunks known to be identical to the generator output (see {@link SLandPristineTracker}) are unloaded without saving.
+ *
+ * @author Him188 @ MoneySLand Project
+ */
+public class IdleChunkUnloadTask extends PluginTask<MoneySLand> {
+	public IdleChunkUnloadTask(MoneySLand owner) {
+		super(owner);
+	}
+
+	@Override
+	public void onRun(int currentTick) {
+		for (Level level : Server.getInstance().getLevels().values()) {
+			SLandGrid grid = this.getOwner().getGrid(level);
+			if (grid == null) {
+				continue;
+			}
+
+			List<FullChunk> chunks = new ArrayList<>(level.getChunks().values()); //卸载时会修改该集合
+			for (FullChunk chunk : chunks) {
+				if (!isIdle(grid, chunk.getX(), chunk.getZ()) || this.getOwner().getTeleporter().isWarm(level, chunk.getX(), chunk.getZ())) {
+					continue;
+				}
+
+				if (!level.isChunkInUse(chunk.getX(), chunk.getZ())) {
+					//只有确定仍与生成器输出相同的区块才不保存, 其他区块 (例如过道中的建筑, 箱子, 液体) 正常保存
+					SLandPristineTracker tracker = this.getOwner().getPristineTracker();
+					boolean pristine = tracker != null && tracker.isPristine(level, chunk);
+					level.unloadChunk(chunk.getX(), chunk.getZ(), true, !pristine);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns if every land overlapping the chunk is unowned and unmodified, which means it is not stored
+	 */
+	private static boolean isIdle(SLandGrid grid, int chunkX, int chunkZ) {
+		SLandLayout layout = grid.getLayout();
+		int minCellX = layout.cell(chunkX << 4);
+		int maxCellX = layout.cell((chunkX << 4) + 15);
+		int minCellZ = layout.cell(chunkZ << 4);
+		int maxCellZ = layout.cell((chunkZ << 4) + 15);
+		for (int cellX = minCellX; cellX <= maxCellX; cellX++) {
+			for (int cellZ = minCellZ; cellZ <= maxCellZ; cellZ++) {
+				SLand land = grid.getStoredLandInCell(cellX, cellZ);
+				if (land != null && (land.isOwned() || land.isModified())) {
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+}
@@ -0,0 +1,228 @@
+package money.tasks;
+
+import cn.nukkit.Server;
+import cn.nukkit.command.CommandSender;
+import cn.nukkit.level.Level;
+import cn.nukkit.level.format.FullChunk;
+import cn.nukkit.scheduler.PluginTask;
+import money.MoneySLand;
+import money.generator.SLandLayout;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * 从世界中心开始按螺旋顺序预生成地皮世界的区块. 区块由服务器的异步线程池生成和填充, 可同时使用多个核心 <br>
+ * Pregenerates the chunks of a land level in a spiral starting from the center.
+ * Chunks are generated and populated by the async worker pool of the server, so multiple cores are used.
+ * <p>
+ * 每个 tick 最多提交 {@code concurrency} 个新区块, 同时进行中的区块数量也不超过该值. <br>
+ * At most {@code concurrency} new chunks are requested in every tick, and no more than that many chunks are in progress.
+ *
+ * @author Him188 @ MoneySLand Project
+ */
+public class PregenerateTask extends PluginTask<MoneySLand> {
+	private static final long REPORT_INTERVAL_MILLIS = 10 * 1000;
+
+	private final Level level;
+	private final CommandSender sender;
+	private final int concurrency;
+
+	private final int minChunk;
+	private final int maxChunk;
+	private final int maxRing;
+	private final long total;
+
+	//螺旋中的下一个位置
+	private int ring;
+	private int step;
+
+	private final Set<Long> inFlight = new LinkedHashSet<>();
+	private final List<Long> completed = new ArrayList<>(); //已完成但周围仍有区块在生成, 暂不卸载
+	private long done;
+
+	private final long startTime = System.currentTimeMillis();
+	private long lastReport = startTime;
+	private boolean finished;
+
+	/**
+	 * @param owner       plugin
+	 * @param level       land level
+	 * @param sender      receiver of progress reports
+	 * @param radius      radius in lands, lands from cell -radius to cell radius on both axes are generated
+	 * @param concurrency max count of chunks in progress
+	 */
+	public PregenerateTask(MoneySLand owner, Level level, CommandSender sender, int radius, int concurrency) {
+		super(owner);
+		this.level = level;
+		this.sender = sender;
+		this.concurrency = Math.max(1, concurrency);
+
+		SLandLayout layout = owner.getGrid(level).getLayout();
+		this.minChunk = Math.floorDiv(layout.cellMin(-radius), 16);
+		this.maxChunk = Math.floorDiv(layout.cellMax(radius), 16);
+		this.maxRing = Math.max(-minChunk, maxChunk);
+		this.total = (long) (maxChunk - minChunk + 1) * (maxChunk - minChunk + 1);
+	}
+
+	public Level getLevel() {
+		return level;
+	}
+
+	public long getTotal() {
+		return total;
+	}
+
+	public boolean isFinished() {
+		return finished;
+	}
+
+	@Override
+	public void onRun(int currentTick) {
+		if (Server.getInstance().getLevel(level.getId()) != level) { //世界已被卸载
+			this.cancel();
+			return;
+		}
+
+		for (Iterator<Long> iterator = inFlight.iterator(); iterator.hasNext(); ) {
+			long hash = iterator.next();
+			if (level.populateChunk(Level.getHashX(hash), Level.getHashZ(hash), true)) {
+				iterator.remove();
+				complete(hash);
+			}
+		}
+
+		int requested = 0;
+		while (inFlight.size() < concurrency && requested < concurrency && ring <= maxRing) {
+			long hash = nextChunk();
+			if (hash == Long.MIN_VALUE) {
+				continue;
+			}
+			requested++;
+			if (level.populateChunk(Level.getHashX(hash), Level.getHashZ(hash), true)) { //已经生成过
+				complete(hash);
+			} else {
+				inFlight.add(hash);
+			}
+		}
+
+		unloadCompleted();
+
+		if (ring > maxRing && inFlight.isEmpty()) {
+			finished = true;
+			report("commands.pregenland.finished");
+			this.cancel();
+			return;
+		}
+
+		long now = System.currentTimeMillis();
+		if (now - lastReport >= REPORT_INTERVAL_MILLIS) {
+			lastReport = now;
+			report("commands.pregenland.progress");
+		}
+	}
+
+	@Override
+	public void onCancel() {
+		if (!finished) {
+			finished = true;
+			report("commands.pregenland.stopped");
+		}
+	}
+
+	/**
+	 * 取螺旋中的下一个区块, 超出范围时返回 Long.MIN_VALUE
+	 */
+	private long nextChunk() {
+		int x, z;
+		if (ring == 0) {
+			x = 0;
+			z = 0;
+			ring++;
+		} else {
+			int side = step / (2 * ring);
+			int offset = step % (2 * ring);
+			switch (side) {
+				case 0:
+					x = -ring + offset;
+					z = -ring;
+					break;
+				case 1:
+					x = ring;
+					z = -ring + offset;
+					break;
+				case 2:
+					x = ring - offset;
+					z = ring;
+					break;
+				default:
+					x = -ring;
+					z = ring - offset;
+					break;
+			}
+			if (++step == 8 * ring) {
+				ring++;
+				step = 0;
+			}
+		}
+
+		if (x < minChunk || x > maxChunk || z < minChunk || z > maxChunk) {
+			return Long.MIN_VALUE;
+		}
+		return Level.chunkHash(x, z);
+	}
+
+	private void complete(long hash) {
+		done++;
+		completed.add(hash);
+	}
+
+	/**
+	 * 卸载周围没有正在生成的区块的已完成区块, 使内存占用不随范围增长
+	 */
+	private void unloadCompleted() {
+		for (Iterator<Long> iterator = completed.iterator(); iterator.hasNext(); ) {
+			long hash = iterator.next();
+			int x = Level.getHashX(hash);
+			int z = Level.getHashZ(hash);
+			if (hasNeighbourInFlight(x, z)) {
+				continue;
+			}
+			iterator.remove();
+			FullChunk chunk = level.getChunk(x, z, false);
+			if (chunk != null && !level.isChunkInUse(x, z)) {
+				chunk.setChanged(); //预生成的区块总是保存
+				level.unloadChunk(x, z, true, true);
+			}
+		}
+	}
+
+	private boolean hasNeighbourInFlight(int x, int z) {
+		for (int dx = -1; dx <= 1; dx++) {
+			for (int dz = -1; dz <= 1; dz++) {
+				if (inFlight.contains(Level.chunkHash(x + dx, z + dz))) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	private void report(String message) {
+		double seconds = Math.max(1, System.currentTimeMillis() - startTime) / 1000.0;
+		double speed = done / seconds;
+		long eta = speed > 0 ? (long) ((total - done) / speed) : -1;
+		sender.sendMessage(getOwner().translateMessage(message,
+				"level", level.getFolderName(),
+				"done", done,
+				"total", total,
+				"percent", String.format("%.1f", done * 100.0 / total),
+				"speed", String.format("%.1f", speed),
+				"eta", eta < 0 ? "-" : String.format("%d:%02d", eta / 60, eta % 60),
+				"time", String.format("%d:%02d", (long) seconds / 60, (long) seconds % 60)
+		));
+	}
+}
@@ -0,0 +1,176 @@
+package money.utils;
+
+import cn.nukkit.utils.TextFormat;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 预编译的语言模板. 颜色代码在加载时转换, 参数 {@code $key$} 被编译为下标 <br>
+ * Precompiled language entry. Color codes are converted once when loading, and {@code $key$} placeholders are compiled into indexes.
+ *
+ * @author Him188 @ MoneySLand Project
+ */
+public final class MessageTemplate {
+	/**
+	 * 文本片段, 长度为 {@code slots.length + 1}
+	 */
+	private final String[] texts;
+	/**
+	 * 每个参数位置对应的参数名下标
+	 */
+	private final int[] slots;
+	/**
+	 * 不重复的参数名
+	 */
+	private final String[] names;
+
+	private final int length;
+
+	/**
+	 * 未替换任何参数的文本
+	 */
+	private final String text;
+
+	private MessageTemplate(String[] texts, int[] slots, String[] names) {
+		this.texts = texts;
+		this.slots = slots;
+		this.names = names;
+
+		int length = 0;
+		for (String text : texts) {
+			length += text.length();
+		}
+		this.length = length;
+		this.text = slots.length == 0 ? texts[0] : renderValues(new Object[names.length]);
+	}
+
+	public static MessageTemplate compile(String message) {
+		String colorized = TextFormat.colorize(message);
+
+		List<String> texts = new ArrayList<>();
+		List<Integer> slots = new ArrayList<>();
+		List<String> names = new ArrayList<>();
+
+		int start = 0;
+		int from = 0;
+		int open;
+		while ((open = colorized.indexOf('$', from)) != -1) {
+			int close = colorized.indexOf('$', open + 1);
+			if (close == -1) {
+				break;
+			}
+
+			String name = colorized.substring(open + 1, close);
+			if (!isName(name)) {
+				from = close; //第二个 $ 可能是下一个参数的开头
+				continue;
+			}
+
+			texts.add(colorized.substring(start, open));
+			int index = names.indexOf(name);
+			if (index == -1) {
+				index = names.size();
+				names.add(name);
+			}
+			slots.add(index);
+			start = from = close + 1;
+		}
+		texts.add(colorized.substring(start));
+
+		int[] slotArray = new int[slots.size()];
+		for (int i = 0; i < slotArray.length; i++) {
+			slotArray[i] = slots.get(i);
+		}
+		return new MessageTemplate(texts.toArray(new String[texts.size()]), slotArray, names.toArray(new String[names.size()]));
+	}
+
+	private static boolean isName(String name) {
+		if (name.isEmpty()) {
+			return false;
+		}
+		for (int i = 0; i < name.length(); i++) {
+			char c = name.charAt(i);
+			if (!Character.isLetterOrDigit(c) && c != '_' && c != '-' && c != '.') {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Gets the message without any argument replaced
+	 *
+	 * @return the colorized message
+	 */
+	public String getText() {
+		return text;
+	}
+
+	/**
+	 * Renders the message
+	 *
+	 * @param keys_values keys and values, e.g. {@code "id", 1, "owner", "Him188"}
+	 * @return the rendered message
+	 */
+	public String render(Object... keys_values) {
+		if (slots.length == 0) {
+			return texts[0];
+		}
+
+		Object[] values = new Object[names.length];
+		for (int i = 0; i + 1 < keys_values.length; i += 2) {
+			int index = indexOf(keys_values[i].toString());
+			if (index != -1) {
+				values[index] = keys_values[i + 1];
+			}
+		}
+		return renderValues(values);
+	}
+
+	/**
+	 * Renders the message
+	 *
+	 * @param args arguments
+	 * @return the rendered message
+	 */
+	public String render(Map<String, Object> args) {
+		if (slots.length == 0) {
+			return texts[0];
+		}
+
+		Object[] values = new Object[names.length];
+		for (int i = 0; i < names.length; i++) {
+			values[i] = args.get(names[i]);
+		}
+		return renderValues(values);
+	}
+
+	private int indexOf(String name) {
+		for (int i = 0; i < names.length; i++) {
+			if (names[i].equals(name)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private String renderValues(Object[] values) {
+		StringBuilder builder = new StringBuilder(length + slots.length * 8);
+		for (int i = 0; i < slots.length; i++) {
+			builder.append(texts[i]);
+
+			Object value = values[slots[i]];
+			if (value == null) {
+				//未提供的参数保持原样
+				builder.append('$').append(names[slots[i]]).append('$');
+			} else if (value instanceof Double || value instanceof Float) {
+				builder.append(Math.round(((Number) value).doubleValue()));
+			} else {
+				builder.append(value);
+			}
+		}
+		return builder.append(texts[slots.length]).toString();
+	}
+}
@@ -19,6 +19,7 @@ public interface SLandPermissions {
 	String PERMISSION_BREAK_FRAME = PERMISSION_BASE + ".breakframe";
 
 	String PERMISSION_BUY = PERMISSION_BASE + ".buy";
+	String PERMISSION_ENTER = PERMISSION_BASE + ".enter";
 
 
 	String COMMAND_BASE = "money.command.sland";
@@ -39,6 +40,11 @@ public interface SLandPermissions {
 	String COMMAND_LANDINVITEE_ADD_OTHERS = COMMAND_LANDINVITEE_ADD + ".others";
 	String COMMAND_LANDINVITEE_REMOVE = COMMAND_LANDINVITEE + ".remove";
 	String COMMAND_LANDINVITEE_REMOVE_OTHERS = COMMAND_LANDINVITEE_REMOVE + ".others";
+	String COMMAND_LANDDENY = COMMAND_BASE + ".landdeny";
+	String COMMAND_LANDDENY_OTHERS = COMMAND_LANDDENY + ".others";
+	String COMMAND_SLANDLAG = COMMAND_BASE + ".slandlag";
+	String COMMAND_PREGENLAND = COMMAND_BASE + ".pregenland";
+	String COMMAND_LANDSEARCH = COMMAND_BASE + ".landsearch";
 
 	static boolean testPermission(Player player, String permission, Object child) {
 		return player.hasPermission(permission) || player.hasPermission(permission + "." + child);
@@ -108,7 +108,7 @@ public final class SLandUtils {
 		}
 		Map<String, Object> map = new HashMap<>();
 		for (String s : preset.split(";")) {
-			String[] key_value = s.split(":");
+			String[] key_value = s.split(":", 2); //方块的值可能是 ID:META
 			try {
 				map.put(key_value[0], key_value[1]);
 			} catch (Exception e) {
@@ -131,4 +131,21 @@ public final class SLandUtils {
 		});
 		return stringBuilder.toString();
 	}
+
+	/**
+	 * 计算玩家名字的 64 位哈希 (FNV-1a, 不区分大小写), 用于快速比较玩家 <br>
+	 * Computes the 64-bit hash (FNV-1a, case-insensitive) of a player name, used for comparing players quickly
+	 *
+	 * @param name player name
+	 *
+	 * @return hash
+	 */
+	public static long hashName(String name) {
+		long hash = 0xcbf29ce484222325L;
+		for (int i = 0; i < name.length(); i++) {
+			hash ^= Character.toLowerCase(name.charAt(i));
+			hash *= 0x100000001b3L;
+		}
+		return hash;
+	}
 }